@@ -8,6 +8,7 @@
  * Last Updated February 23, 2013
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 public class AdaBoostR {
@@ -21,14 +22,28 @@ public class AdaBoostR {
 	 * as part of this AdaBoost predictive model */
 	private ArrayList<WeakLearner> wl_committee = new ArrayList<WeakLearner>();
 	private int T = 0;	// number of weak learners in committee
+
+	/* Running committee predictions on the training set and, if one is
+	 * attached, on a validation set, updated as each learner is recruited */
+	private CommitteeState training_state;
+	private CommitteeState validation_state = null;
 	
 	/* The training_set contains all training examples, who each hold their
 	 * current weight */
-	private ArrayList<TrainingExample> training_set;
+	private TrainingSet training_set;
 	private int N;	// Number of training examples
+
+	/* Weighted Gram matrix and X'Wy of the training set under the current
+	 * distribution, recomputed after each distribution update and shared by
+	 * every candidate weak learner of that round */
+	private SufficientStatistics stats;
+
+	/* If set, candidate weak learners are trained in parallel batches instead
+	 * of one at a time (see setParallelCandidates) */
+	private CandidateTrainer candidateTrainer = null;
 	
 	/* The test_set contains all test examples */
-	public ArrayList<TrainingExample> test_set;
+	public TrainingSet test_set;
 	
 	/* If RELATIVE_ERR is true, measure error by relative value abs(error / target)
 	 * If RELATIVE_ERR is false, measure error by absolute value abs(error) */
@@ -37,11 +52,15 @@ public class AdaBoostR {
 	
 	private static final boolean NORMALIZE_DATA = true;
 	
+	/* Normalization the training set was given before training, if any; saved
+	 * with the model so it can be applied to raw inputs (see setTransformer) */
+	private TrainingSetTransformer transformer = null;
+	
 	/* 0 is difference, 1 is cumulative */
 	private static final int BET_TYPE = 1;
 	
 	/** Constructor */
-	public AdaBoostR(ArrayList<TrainingExample> train_set) {
+	public AdaBoostR(TrainingSet train_set) {
 		// List of training examples
 		this.training_set = train_set;
 
@@ -49,9 +68,33 @@ public class AdaBoostR {
 		//this.wl_committee = new ArrayList<WeakLearner>();
 
 		this.N = this.training_set.size();
+		this.training_state = new CommitteeState(training_set);
 		System.out.println("AdaboostR initialized.");
 		System.out.println("N = " + N);
 	}
+
+	/**
+	 * Track committee predictions on a validation (or test) set as learners
+	 * are recruited, so its error can be reported every round in O(N).
+	 */
+	public void attachValidationSet(TrainingSet validation_set) {
+		validation_state = new CommitteeState(validation_set);
+		for (WeakLearner wlt : wl_committee) {
+			validation_state.add(wlt);
+		}
+	}
+
+	/**
+	 * Train candidates in parallel mode: instead of training one learner at a
+	 * time until one passes the demarcation test, train batches of candidates
+	 * concurrently on the round's distribution and recruit the one chosen by
+	 * policy among those that pass. Training is reproducible for a given seed
+	 * and candidate count.
+	 */
+	public void setParallelCandidates(int candidates,
+			CandidateTrainer.Policy policy, long seed) {
+		candidateTrainer = new CandidateTrainer(candidates, policy, seed);
+	}
 	
 	/* Training Phase:
 	 * 
@@ -75,43 +118,83 @@ public class AdaBoostR {
 	public void trainAdaBoostR() {
 		// Set a uniform training example distribution to start.
 		initializeTrainingDistribution();
+		stats = new SufficientStatistics(training_set);
 		System.out.println("Training distribution set");
 		
 		// Train MAX_WL weak learners.
 		int iter = 1;
 		while (iter <= MAX_WL) {
-			WeakLearner wlt = new WeakLearner(training_set);
+			WeakLearner wlt = (candidateTrainer == null) ?
+					trainCandidate() : trainCandidateBatches();
 			
-			// Accept the weak learner if it passes the demarcation test.
-			// Otherwise, train a new weak learner.
-			while (!passDemarcationTest(wlt)) {
-				wlt = new WeakLearner(training_set);
-			}
-			
-			wl_committee.add(wlt);
-			wlt.train();
-
 			// Set the combination coefficient of the learner.
 			minimizeCost(wlt);
+			recruit(wlt);
 			// Update training distribution.
 			updateTrainingDistribution(wlt);
 			
 			// Print result of adding wlt to console.
-			System.out.println("[" + iter + "] WL Error = " + getWLError(wlt) + 
+			String result = "[" + iter + "] WL Error = " + getWLError(wlt) + 
 					" WL Weight = " + wlt.getCombCoef() + 
-					" AdaBoostR Error = " + getCommitteeError());
+					" AdaBoostR Error = " + getCommitteeError();
+			if (validation_state != null) {
+				result += " Validation Error = " + validation_state.getRelativeError();
+			}
+			System.out.println(result);
 			
 			iter++;
 		}
 		System.out.println("Training phase complete.");
 	}
 	
+	/** Add a learner, whose combination coefficient is set, to the committee */
+	private void recruit(WeakLearner wlt) {
+		wl_committee.add(wlt);
+		T = wl_committee.size();
+		training_state.add(wlt);
+		if (validation_state != null) {
+			validation_state.add(wlt);
+		}
+	}
+
+	/**
+	 * Accept the weak learner if it passes the demarcation test.
+	 * Otherwise, train a new weak learner.
+	 */
+	private WeakLearner trainCandidate() {
+		WeakLearner wlt = new WeakLearner(training_set, stats);
+		wlt.train();
+		while (!passDemarcationTest(wlt)) {
+			wlt = new WeakLearner(training_set, stats);
+			wlt.train();
+		}
+		return wlt;
+	}
+
+	/** Train batches of candidates until one passes the demarcation test */
+	private WeakLearner trainCandidateBatches() {
+		CandidateTrainer.Scorer scorer = new CandidateTrainer.Scorer() {
+			public double score(WeakLearner wl) {
+				return demarcationEpsilon(wl);
+			}
+			public boolean passes(double score) {
+				return score < 1;
+			}
+		};
+		WeakLearner wlt = null;
+		while (wlt == null) {
+			wlt = candidateTrainer.trainBatch(training_set, stats, scorer)
+					.getChosen();
+		}
+		return wlt;
+	}
+
 	/** Initialize training set distribution */
 	private void initializeTrainingDistribution() {
 		// Initialize all weights and relative weights of examples to 1/N.
 		for (int i = 0; i < N; i++) {
-			training_set.get(i).setWeight(1.0/N);
-			training_set.get(i).setRelativeWeight(1.0/N);
+			training_set.setWeight(i, 1.0/N);
+			training_set.setRelativeWeight(i, 1.0/N);
 		}
 	}
 	
@@ -121,12 +204,12 @@ public class AdaBoostR {
 	 * examples
 	 */
 	public double getWLError(WeakLearner wl) {
-		double error_sum = 0.0;
-		for (TrainingExample example : training_set) {
-			double target = example.getTarget();
-			double prediction = wl.getHypothesis(example.getInputVector());
-			error_sum += Math.abs((prediction - target) / target);
-		}
+		final double[] relativeErrors = wl.getRelativeErrors();
+		double error_sum = ParallelReduction.sum(N, new ParallelReduction.Term() {
+			public double term(int i) {
+				return relativeErrors[i];
+			}
+		});
 		return error_sum / training_set.size();
 	}
 	
@@ -135,12 +218,14 @@ public class AdaBoostR {
 	 * learners, just as we did for getWLError above.
 	 */
 	public double getCommitteeError() {
-		double error_sum = 0.0;
-		for (TrainingExample example : training_set) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
-			error_sum += Math.abs((prediction - target) / target);
-		}
+		final double[] targets = training_set.getTargets();
+		double error_sum = ParallelReduction.sum(N, new ParallelReduction.Term() {
+			public double term(int i) {
+				double target = targets[i];
+				double prediction = getPrediction(training_set, i);
+				return Math.abs((prediction - target) / target);
+			}
+		});
 		return error_sum / training_set.size();
 	}
 
@@ -168,6 +253,55 @@ public class AdaBoostR {
 		}
 		return weighted_prediction / sumOfWeights;
 	}
+
+	/** Committee prediction for example i of a set of examples. Read from
+	 *  the running committee state if the set is tracked by one. */
+	public double getPrediction(TrainingSet set, int i) {
+		if (set == training_state.getSet()) {
+			return training_state.getPrediction(i);
+		}
+		if (validation_state != null && set == validation_state.getSet()) {
+			return validation_state.getPrediction(i);
+		}
+		if (wl_committee.size() == 0) return 0;
+		double weighted_prediction = 0;
+		double sumOfWeights = 0;
+		for (WeakLearner wlt : wl_committee) {
+			weighted_prediction += (wlt.getCombCoef() * 
+									wlt.getHypothesis(set, i));
+			sumOfWeights += wlt.getCombCoef();
+		}
+		return weighted_prediction / sumOfWeights;
+	}
+
+	/**
+	 * Flatten the current committee into an immutable CompiledEnsemble for
+	 * scoring. Later rounds of training do not affect the compiled model.
+	 */
+	public CompiledEnsemble compile() {
+		return CompiledEnsemble.compile(wl_committee,
+				training_set.getInputDim());
+	}
+
+	/** Settings saved with the model, in order: TAU, MAX_WL, RELATIVE_ERR (1 or 0) */
+	public double[] getHyperparameters() {
+		return new double[] {TAU, MAX_WL, RELATIVE_ERR ? 1 : 0};
+	}
+
+	/**
+	 * Record the transformer that normalized the training set, so a saved
+	 * model normalizes raw inputs and converts its predictions back to real
+	 * targets. The booster itself still works on normalized values.
+	 */
+	public void setTransformer(TrainingSetTransformer transformer) {
+		this.transformer = transformer;
+	}
+
+	/** Save the current committee to a ModelFile at path */
+	public void save(String path) throws IOException {
+		ModelFile.write(path, ModelFile.ADABOOST_R, getHyperparameters(),
+				transformer, wl_committee, training_set.getInputDim());
+	}
 	
 	/**
 	 * The demarcation threshold is a marker by which to judge whether the
@@ -179,22 +313,19 @@ public class AdaBoostR {
 	 * where p represents the relative weight of training example i.
 	 */
 	private boolean passDemarcationTest(WeakLearner wl) {
-		double epsilon = 0;
-		for (int i = 0; i < N; i++) {
-			TrainingExample example = training_set.get(i);
-			double exp_term = Math.exp(squaredError(wl, example) - TAU);
-			epsilon += example.getRelativeWeight() * exp_term;
-		}
-		return (epsilon < 1);
+		return (demarcationEpsilon(wl) < 1);
 	}
-	
-	/**
-	 * Return the squared error of a weak learner on a training example.
-	 * @return squared error value
-	 */
-	private double squaredError(WeakLearner wl, TrainingExample example) {
-		return Math.pow(wl.getHypothesis(example.getInputVector()) - 
-				example.getTarget(), 2);
+
+	/** The epsilon value of the demarcation test */
+	private double demarcationEpsilon(WeakLearner wl) {
+		final double[] rel_weights = training_set.getRelativeWeights();
+		final double[] squaredErrors = wl.getSquaredErrors();
+		return ParallelReduction.sum(N, new ParallelReduction.Term() {
+			public double term(int i) {
+				double exp_term = Math.exp(squaredErrors[i] - TAU);
+				return rel_weights[i] * exp_term;
+			}
+		});
 	}
 	
 	/** 
@@ -210,20 +341,22 @@ public class AdaBoostR {
 	 * evaluateCost returns the value of the equation:
 	 * Jt = SUM(i = 1 to n) { wt(i) * ct^(-1/2) * exp[ct * (ft(x(i)) - y(i))^2]
 	 * where t is the new weak learner and i is a training example.
+	 * The squared errors come from wlt's prediction cache, so each probe of
+	 * the line search costs one exp per example.
 	 * 
 	 * @return cost Jt with addition of wlt
 	 */
-	private double evaluateCost(WeakLearner wlt, double ct) {
-		double cost = 0;
-		
-		// Update by summing to cost one example at a time
-		for (int i = 0; i < N; i++) {
-			TrainingExample example = training_set.get(i);
-			double exp_term = Math.exp(ct * squaredError(wlt, example));
-			double wt = example.getWeight();
-			cost += wt * Math.pow(ct, -0.5) * exp_term;
-		}	
-		return cost;
+	private double evaluateCost(WeakLearner wlt, final double ct) {
+		// Sum wt(i) * exp[...] over examples; ct^(-1/2) is common to all terms
+		final double[] weights = training_set.getWeights();
+		final double[] squaredErrors = wlt.getSquaredErrors();
+		double cost = ParallelReduction.sum(N, new ParallelReduction.Term() {
+			public double term(int i) {
+				double exp_term = Math.exp(ct * squaredErrors[i]);
+				return weights[i] * exp_term;
+			}
+		});
+		return cost / Math.sqrt(ct);
 	}
 	
 	/**
@@ -304,9 +437,9 @@ public class AdaBoostR {
 	private double minimizeCostAnalytical(WeakLearner wlt) {
 		// Get sum of squared error from examples.
 		double sumSquaredError = 0;
+		double[] squaredErrors = wlt.getSquaredErrors();
 		for (int i = 0; i < N; i++) {
-			TrainingExample example = training_set.get(i);
-			sumSquaredError += squaredError(wlt, example);
+			sumSquaredError += squaredErrors[i];
 		}
 
 		double ct = N / (2 * sumSquaredError);
@@ -328,16 +461,16 @@ public class AdaBoostR {
 	 * 
 	 * The new weight after iteration t is:
 	 * w(t + 1) = wt * ct^(-1/2) * exp[ct * (ft(x(i) - y(i))^2]
+	 * where ct and ctPower = ct^(-1/2) are computed once by the caller.
 	 * @return updated weight of example after new learner
 	 */
-	private double updateSingleExampleWeight(WeakLearner wlt, 
-			TrainingExample example) {
-		double wt = example.getWeight();	// weight of example before update
-		double ct = wlt.getCombCoef();
-		double exp_term = Math.exp(ct * squaredError(wlt, example));
-		double newWeight = wt * (Math.pow(ct, -0.5)) * exp_term;
+	private double updateSingleExampleWeight(WeakLearner wlt, int i,
+			double ct, double ctPower) {
+		double wt = training_set.getWeight(i);	// weight of example before update
+		double exp_term = Math.exp(ct * wlt.getSquaredErrors()[i]);
+		double newWeight = wt * ctPower * exp_term;
 		
-		example.setWeight(newWeight);
+		training_set.setWeight(i, newWeight);
 		return newWeight;
 	}
 	
@@ -345,31 +478,35 @@ public class AdaBoostR {
 	 * distribution with respect to performance of newly added learner.
 	 * Then update their relative weights.
 	 */
-	private void updateTrainingDistribution(WeakLearner wlt) {
-		double sumOfWeights = 0;
+	private void updateTrainingDistribution(final WeakLearner wlt) {
+		final double ct = wlt.getCombCoef();
+		final double ctPower = Math.pow(ct, -0.5);
 		
 		// Update weights of each individual example, while tallying new weights
 		// in sumOfWeights
-		for (int i = 0; i < N; i++) {
-			TrainingExample example = training_set.get(i);
-			sumOfWeights += updateSingleExampleWeight(wlt, example);
-		}
+		double sumOfWeights = ParallelReduction.sum(N, new ParallelReduction.Term() {
+			public double term(int i) {
+				return updateSingleExampleWeight(wlt, i, ct, ctPower);
+			}
+		});
 
 		// Now set relative weights of all examples using sumOfWeights.
+		double[] weights = training_set.getWeights();
+		double[] rel_weights = training_set.getRelativeWeights();
 		for (int i = 0; i < N; i++) {
-			TrainingExample example = training_set.get(i);
-			example.setRelativeWeight(example.getWeight() / sumOfWeights);
+			rel_weights[i] = weights[i] / sumOfWeights;
 		}
+		stats.update(training_set);
 	}
 	
 	/**
 	 * Return average absolute error of committee of weak learners on test data
 	 */
-	public double getAvAbsError(ArrayList<TrainingExample> examples) {
+	public double getAvAbsError(TrainingSet examples) {
 		double error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			error += Math.abs(prediction-target);
 		}
 		return error/examples.size();
@@ -378,11 +515,11 @@ public class AdaBoostR {
 	/**
 	 * Return average squared error of committee of weak learners on test data
 	 */
-	public double getAvSquaredError(ArrayList<TrainingExample> examples) {
+	public double getAvSquaredError(TrainingSet examples) {
 		double squared_error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			squared_error += Math.pow(prediction - target, 2);
 		}
 		return squared_error/examples.size();
@@ -391,11 +528,11 @@ public class AdaBoostR {
 	/**
 	 * Return root mean squared error of committee of weak learners on test data
 	 */
-	public double getRMSError(ArrayList<TrainingExample> examples) {
+	public double getRMSError(TrainingSet examples) {
 		double squared_error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			squared_error += Math.pow(prediction - target, 2);
 		}
 		return Math.sqrt(squared_error/examples.size());
@@ -406,9 +543,10 @@ public class AdaBoostR {
 	 */
 	public double getError(WeakLearner wl) {
 		double error = 0.0;
-		for (TrainingExample example : training_set) {
-			double target = example.getTarget();
-			double prediction = wl.getHypothesis(example.getInputVector());
+		double[] predictions = wl.getPredictions();
+		for (int i = 0; i < N; i++) {
+			double target = training_set.getTarget(i);
+			double prediction = predictions[i];
 			if (RELATIVE_ERR) {
 				error += Math.abs((prediction-target)/target);
 			} else {
@@ -423,10 +561,10 @@ public class AdaBoostR {
 	 */
 	public double getBetAccuracy() {
 		int num_correct = 0;
-		for (TrainingExample example : test_set) {
-			double target = example.getTarget();
-			double prediction = this.getPrediction(example.getInputVector());
-			double cutoff = example.getBetCutoff(BET_TYPE);
+		for (int i = 0; i < test_set.size(); i++) {
+			double target = test_set.getTarget(i);
+			double prediction = this.getPrediction(test_set, i);
+			double cutoff = test_set.getBetCutoff(i, BET_TYPE);
 			// If the target and prediction are on the same side of the cutoff,
 			// the bet prediction is correct.
 			if ((target <= cutoff && prediction <= cutoff) ||
@@ -439,8 +577,8 @@ public class AdaBoostR {
 
 	public static void main(String[] args) {
 		// Get training set
-		DataParser.processFile("data/SEASON-2010.csv", false);
-		ArrayList<TrainingExample> training_set = DataParser.getData();
+		TrainingSet training_set = new DataParser().parseFile(
+				"data/SEASON-2010.csv", false);
 		System.out.println("Training Set N = " + training_set.size());
 		AdaBoostR ada = new AdaBoostR(training_set);
 		
@@ -8,6 +8,7 @@
  * Last Updated February 23, 2013
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 public class AdaBoostRT {
@@ -19,12 +20,17 @@ public class AdaBoostRT {
 	 * as part of this AdaBoostRT model */
 	private ArrayList<WeakLearner> wl_committee;
 
+	/* Running committee predictions on the training set and, if one is
+	 * attached, on a validation set, updated as each learner is recruited */
+	private CommitteeState training_state;
+	private CommitteeState validation_state = null;
+
 	/* The training_set contains all training examples, who each hold their
 	 * current weight */
-	private ArrayList<TrainingExample> training_set;
+	private TrainingSet training_set;
 	
 	/* The test_set contains all test examples */
-	public ArrayList<TrainingExample> test_set;
+	public TrainingSet test_set;
 
 	/* If RELATIVE_ERR is true, measure error by relative value abs(error / target)
 	 * If RELATIVE_ERR is false, measure error by absolute value abs(error) */
@@ -36,6 +42,15 @@ public class AdaBoostRT {
 	 */
 	private static final double MAX_WL_ERR = 0.495;
 
+	/* Weighted Gram matrix and X'Wy of the training set under the current
+	 * distribution, recomputed after each weight update and shared by every
+	 * weak learner trained in that round */
+	private SufficientStatistics stats;
+
+	/* If set, each round trains a batch of candidate weak learners in
+	 * parallel instead of one learner at a time (see setParallelCandidates) */
+	private CandidateTrainer candidateTrainer = null;
+
 	private TrainingSetTransformer transformer = null;
 	private static final boolean NORMALIZE_DATA = false;
 	
@@ -53,16 +68,41 @@ public class AdaBoostRT {
 	private static final int BET_TYPE = 1;
 
 	/** Constructor */
-	public AdaBoostRT(ArrayList<TrainingExample> train_set) {
+	public AdaBoostRT(TrainingSet train_set) {
 		// List of training examples
 		this.training_set = train_set;
 
 		// Recruited weak learners
 		this.wl_committee = new ArrayList<WeakLearner>();
+		this.training_state = new CommitteeState(training_set);
 
 		System.out.println("AdaboostRT initialized.");
 	}
 
+	/**
+	 * Track committee predictions on a validation (or test) set as learners
+	 * are recruited, so its error can be reported every round in O(N).
+	 */
+	public void attachValidationSet(TrainingSet validation_set) {
+		validation_state = new CommitteeState(validation_set);
+		for (WeakLearner wlt : wl_committee) {
+			validation_state.add(wlt);
+		}
+	}
+
+	/**
+	 * Train candidates rounds in parallel mode: each round trains a batch of
+	 * candidates concurrently on the round's distribution and recruits one
+	 * chosen by policy among those with error rate below MAX_WL_ERR. If none
+	 * qualifies, the lowest-error candidate is discarded as a serial round
+	 * would discard its learner, and the whole batch counts as discarded.
+	 * Training is reproducible for a given seed and candidate count.
+	 */
+	public void setParallelCandidates(int candidates,
+			CandidateTrainer.Policy policy, long seed) {
+		candidateTrainer = new CandidateTrainer(candidates, policy, seed);
+	}
+
 	/*
 	 * Training Phase:
 	 * 1. Inputs: training set, weak learner algorithm and RT_MAX_ERROR 
@@ -90,21 +130,38 @@ public class AdaBoostRT {
 		int wl_recruited = 0;	// Number of WL accepted into committee
 		int wl_discarded = 0;	// Number of WL rejected
 		initializeTrainingDistribution();
+		stats = new SufficientStatistics(training_set);
 		
 		// Keep going as long as we do not have too many weak learners 
 		// recruited or too many weak learners rejected
 		while (wl_recruited < MAX_WL && wl_discarded < MAX_BAD_WL) {
-			WeakLearner wlt = new WeakLearner(training_set);
-			wlt.train();
+			WeakLearner wlt;
+			if (candidateTrainer == null) {
+				wlt = new WeakLearner(training_set, stats);
+				wlt.train();
+			} else {
+				CandidateTrainer.Result batch = candidateTrainer.trainBatch(
+						training_set, stats, new CandidateTrainer.Scorer() {
+					public double score(WeakLearner wl) {
+						return calcErrorRate(calcRTErrors(wl));
+					}
+					public boolean passes(double score) {
+						return score < MAX_WL_ERR;
+					}
+				});
+				wlt = batch.getChosen();
+				if (wlt == null) {
+					// The rest of the batch is discarded along with wlt below
+					wlt = batch.getBest();
+					wl_discarded += batch.getRejectedCount() - 1;
+				}
+			}
 
 			// calculate error rate
 			double[] errors = calcRTErrors(wlt);
-			double errRate = 0.0;
-			for (int i = 0; i < training_set.size(); i++) {
-				if (errors[i] > RT_MAX_ERROR) {
-					errRate += training_set.get(i).getRelativeWeight();
-				}
-			}
+			double[] rel_weights = training_set.getRelativeWeights();
+			int size = training_set.size();
+			double errRate = calcErrorRate(errors);
 			if (0 == errRate) {
 				System.out.println("No Errors.  Quit");
 				break;
@@ -113,8 +170,8 @@ public class AdaBoostRT {
 
 			// collect WL and set weight for this weak learner only if errRate < 0.5
 			if (errRate < MAX_WL_ERR) {
-				wl_committee.add(wlt);
 				wlt.setCombCoef(Math.log(1.0/beta));
+				recruit(wlt);
 				wl_recruited++;
 				wl_discarded = 0;
 			}
@@ -124,22 +181,34 @@ public class AdaBoostRT {
 
 			// set weight of samples for the next iteration
 			double total_weight = 0;
-			for (int i = 0; i < training_set.size(); i++) {
-				TrainingExample sample = training_set.get(i);
-				double weight = sample.getRelativeWeight();
+			for (int i = 0; i < size; i++) {
+				double weight = rel_weights[i];
 				if (errors[i] <= RT_MAX_ERROR) {
 					weight *= beta;
 				}
 				total_weight += weight;
-				sample.setRelativeWeight(weight);  // not normalized yet
+				rel_weights[i] = weight;  // not normalized yet
 			}
-			for (TrainingExample sample : training_set) {
-				double weight = sample.getRelativeWeight() / total_weight;
-				sample.setRelativeWeight(weight);  // normalized weight
+			for (int i = 0; i < size; i++) {
+				rel_weights[i] /= total_weight;  // normalized weight
 			}
+			stats.update(training_set);
 
 			// print out iteration result
-			System.out.println("[" + wl_recruited + "] WeakLearnerError=" + getError(wlt) + " ErrorRate=" + errRate + " FinalError=" + getError());
+			String result = "[" + wl_recruited + "] WeakLearnerError=" + getError(wlt) + " ErrorRate=" + errRate + " FinalError=" + getError();
+			if (validation_state != null) {
+				result += " ValidationError=" + validation_state.getRelativeError();
+			}
+			System.out.println(result);
+		}
+	}
+
+	/** Add a learner, whose combination coefficient is set, to the committee */
+	private void recruit(WeakLearner wlt) {
+		wl_committee.add(wlt);
+		training_state.add(wlt);
+		if (validation_state != null) {
+			validation_state.add(wlt);
 		}
 	}
 	
@@ -147,21 +216,38 @@ public class AdaBoostRT {
 	private void initializeTrainingDistribution() {
 		// Initialize all weights and relative weights of examples to 1/N.
 		int size = training_set.size();
-		for (TrainingExample sample : training_set) {
-			sample.setWeight(1.0/size);
-			sample.setRelativeWeight(1.0/size);
+		for (int i = 0; i < size; i++) {
+			training_set.setWeight(i, 1.0/size);
+			training_set.setRelativeWeight(i, 1.0/size);
+		}
+	}
+
+	/** Sum of relative weights of examples whose error exceeds RT_MAX_ERROR */
+	private double calcErrorRate(double[] errors) {
+		double[] rel_weights = training_set.getRelativeWeights();
+		double errRate = 0.0;
+		for (int i = 0; i < errors.length; i++) {
+			if (errors[i] > RT_MAX_ERROR) {
+				errRate += rel_weights[i];
+			}
 		}
+		return errRate;
 	}
 
+	/**
+	 * Error of wlt on each training example, computed from its cached
+	 * predictions. The relative errors are the learner's own cached array,
+	 * so the result must not be modified.
+	 */
 	private double[] calcRTErrors(WeakLearner wlt) {
+		if (RELATIVE_ERR) {
+			return wlt.getRelativeErrors();
+		}
 		double[] errors = new double[training_set.size()];
+		double[] targets = training_set.getTargets();
+		double[] predictions = wlt.getPredictions();
 		for (int i = 0; i < training_set.size(); i++) {
-			double target = training_set.get(i).getTarget();
-			double predicted = wlt.getHypothesis(training_set.get(i).getInputVector());
-			errors[i] = Math.abs(predicted-target);
-			if (RELATIVE_ERR) {
-				errors[i] = errors[i]/Math.abs(target);
-			}
+			errors[i] = Math.abs(predictions[i] - targets[i]);
 		}
 		return errors;
 	}
@@ -192,14 +278,56 @@ public class AdaBoostRT {
 		return weighted_prediction / sumOfWeights;
 	}
 
+	/** Committee prediction for example i of a set of examples. Read from
+	 *  the running committee state if the set is tracked by one. */
+	public double getPrediction(TrainingSet set, int i) {
+		if (set == training_state.getSet()) {
+			return training_state.getPrediction(i);
+		}
+		if (validation_state != null && set == validation_state.getSet()) {
+			return validation_state.getPrediction(i);
+		}
+		if (wl_committee.size() == 0) return 0;
+		double weighted_prediction = 0;
+		double sumOfWeights = 0;
+		for (WeakLearner wlt : wl_committee) {
+			weighted_prediction += (wlt.getCombCoef() * 
+									wlt.getHypothesis(set, i));
+			sumOfWeights += wlt.getCombCoef();
+		}
+		return weighted_prediction / sumOfWeights;
+	}
+
+	/**
+	 * Flatten the current committee into an immutable CompiledEnsemble for
+	 * scoring. Later rounds of training do not affect the compiled model.
+	 */
+	public CompiledEnsemble compile() {
+		return CompiledEnsemble.compile(wl_committee,
+				training_set.getInputDim());
+	}
+
+	/** Settings saved with the model, in order: MAX_WL, MAX_BAD_WL, MAX_WL_ERR, RT_BOOST_POWER, RT_MAX_ERROR,
+	 *  RELATIVE_ERR (1 or 0) */
+	public double[] getHyperparameters() {
+		return new double[] {MAX_WL, MAX_BAD_WL, MAX_WL_ERR, RT_BOOST_POWER,
+				RT_MAX_ERROR, RELATIVE_ERR ? 1 : 0};
+	}
+
+	/** Save the current committee to a ModelFile at path */
+	public void save(String path) throws IOException {
+		ModelFile.write(path, ModelFile.ADABOOST_RT, getHyperparameters(), transformer,
+				wl_committee, training_set.getInputDim());
+	}
+
 	/**
 	 * Return relative error of committee of weak learners on training data
 	 */
 	public double getError() {
 		double error = 0.0;
-		for (TrainingExample sample : training_set) {
-			double target = sample.getTarget();
-			double prediction = getPrediction(sample.getInputVector());
+		for (int i = 0; i < training_set.size(); i++) {
+			double target = training_set.getTarget(i);
+			double prediction = getPrediction(training_set, i);
 			if (RELATIVE_ERR) {
 				error += Math.abs((prediction-target)/target);
 			} else {
@@ -212,11 +340,11 @@ public class AdaBoostRT {
 	/**
 	 * Return average absolute error of committee of weak learners on test data
 	 */
-	public double getAvAbsError(ArrayList<TrainingExample> examples) {
+	public double getAvAbsError(TrainingSet examples) {
 		double error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			error += Math.abs(prediction-target);
 		}
 		return error/examples.size();
@@ -225,11 +353,11 @@ public class AdaBoostRT {
 	/**
 	 * Return average squared error of committee of weak learners on test data
 	 */
-	public double getAvSquaredError(ArrayList<TrainingExample> examples) {
+	public double getAvSquaredError(TrainingSet examples) {
 		double squared_error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			squared_error += Math.pow(prediction - target, 2);
 		}
 		return squared_error/examples.size();
@@ -238,11 +366,11 @@ public class AdaBoostRT {
 	/**
 	 * Return root mean squared error of committee of weak learners on test data
 	 */
-	public double getRMSError(ArrayList<TrainingExample> examples) {
+	public double getRMSError(TrainingSet examples) {
 		double squared_error = 0.0;
-		for (TrainingExample example : examples) {
-			double target = example.getTarget();
-			double prediction = getPrediction(example.getInputVector());
+		for (int i = 0; i < examples.size(); i++) {
+			double target = examples.getTarget(i);
+			double prediction = getPrediction(examples, i);
 			squared_error += Math.pow(prediction - target, 2);
 		}
 		return Math.sqrt(squared_error/examples.size());
@@ -253,9 +381,10 @@ public class AdaBoostRT {
 	 */
 	public double getError(WeakLearner wl) {
 		double error = 0.0;
-		for (TrainingExample example : training_set) {
-			double target = example.getTarget();
-			double prediction = wl.getHypothesis(example.getInputVector());
+		double[] predictions = wl.getPredictions();
+		for (int i = 0; i < training_set.size(); i++) {
+			double target = training_set.getTarget(i);
+			double prediction = predictions[i];
 			if (RELATIVE_ERR) {
 				error += Math.abs((prediction-target)/target);
 			} else {
@@ -270,10 +399,10 @@ public class AdaBoostRT {
 	 */
 	public double getBetAccuracy() {
 		int num_correct = 0;
-		for (TrainingExample example : test_set) {
-			double target = example.getTarget();
-			double prediction = this.getPrediction(example.getInputVector());
-			double cutoff = example.getBetCutoff(BET_TYPE);
+		for (int i = 0; i < test_set.size(); i++) {
+			double target = test_set.getTarget(i);
+			double prediction = this.getPrediction(test_set, i);
+			double cutoff = test_set.getBetCutoff(i, BET_TYPE);
 			// If the target and prediction are on the same side of the cutoff,
 			// the bet prediction is correct.
 			if ((target <= cutoff && prediction <= cutoff) ||
@@ -289,12 +418,16 @@ public class AdaBoostRT {
 	public static void main(String[] args) {
 
 		// Get training set
-		DataParser.processFile("data/2010-SEASON.csv", false);
-		ArrayList<TrainingExample> training_set = DataParser.getData();
+		DataParser parser = new DataParser();
+		TrainingSet training_set = parser.parseFile("data/2010-SEASON.csv", false);
 		System.out.println("Training Set N = " + training_set.size());
-		System.out.println(training_set.get(100).getTarget());
+		System.out.println(training_set.getTarget(100));
 		AdaBoostRT ada = new AdaBoostRT(training_set);
 		
+		// Get test set, and follow the committee's error on it while training.
+		ada.test_set = parser.parseFile("data/2012-SEASON-TEST.csv", true);
+		ada.attachValidationSet(ada.test_set);
+
 		// Train AdaBoostRT on training set.
 		ada.trainAdaBoostRT();
 		System.out.println();
@@ -309,10 +442,7 @@ public class AdaBoostRT {
 				ada.getRMSError(ada.training_set));
 		System.out.println();
 		
-		// Get test set and test AdaBoostRT model on test data
-		DataParser.clear();
-		DataParser.processFile("data/2012-SEASON-TEST.csv", true);
-		ada.test_set = DataParser.getData();
+		// Test AdaBoostRT model on test data
 		System.out.println("Test Set N = " + ada.test_set.size());
 		System.out.println("Test Set Average Absolute Error = " + 
 				ada.getAvAbsError(ada.test_set));
@@ -0,0 +1,72 @@
+/**
+ * BoostingBenchmark.java
+ * Times the work done in one boosting round (recompute the weighted
+ * statistics of the current distribution, train a weak learner from them,
+ * then evaluate its error on every training example)
+ * on the concatenated 2007-2012 SEASON files.
+ *
+ * Run from the AdaBoost directory: java BoostingBenchmark [rounds]
+ */
+
+import java.util.ArrayList;
+
+public class BoostingBenchmark {
+	private static final String[] SEASONS = {"2007", "2008", "2009", "2010",
+		"2011", "2012"};
+	private static final int WARMUP_ROUNDS = 5;
+
+	/** Load all seasons into one training set with a uniform distribution */
+	static TrainingSet loadAllSeasons() {
+		ArrayList<String> files = new ArrayList<String>();
+		for (String season : SEASONS) {
+			files.add("data/" + season + "-SEASON.csv");
+		}
+		TrainingSet training_set = new DataParser().parseFiles(files, false);
+		int size = training_set.size();
+		for (int i = 0; i < size; i++) {
+			training_set.setWeight(i, 1.0/size);
+			training_set.setRelativeWeight(i, 1.0/size);
+		}
+		return training_set;
+	}
+
+	/** One round: train a weak learner and compute its relative errors */
+	static double runRound(TrainingSet training_set) {
+		SufficientStatistics stats = new SufficientStatistics(training_set);
+		WeakLearner wlt = new WeakLearner(training_set, stats);
+		wlt.train();
+		double error = 0.0;
+		double[] targets = training_set.getTargets();
+		for (int i = 0; i < training_set.size(); i++) {
+			double target = targets[i];
+			error += Math.abs((wlt.getHypothesis(training_set, i) - target) / target);
+		}
+		return error / training_set.size();
+	}
+
+	public static void main(String[] args) {
+		int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+
+		long start = System.nanoTime();
+		TrainingSet training_set = loadAllSeasons();
+		System.out.println("Loaded N = " + training_set.size() + " in " +
+				(System.nanoTime() - start) / 1e6 + " ms");
+
+		for (int r = 0; r < WARMUP_ROUNDS; r++) {
+			runRound(training_set);
+		}
+
+		double total = 0;
+		double min = Double.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long t0 = System.nanoTime();
+			double error = runRound(training_set);
+			double ms = (System.nanoTime() - t0) / 1e6;
+			total += ms;
+			min = Math.min(min, ms);
+			System.out.println("[" + r + "] " + ms + " ms  WeakLearnerError=" + error);
+		}
+		System.out.println("Per-round time: mean = " + (total / rounds) +
+				" ms, min = " + min + " ms");
+	}
+}
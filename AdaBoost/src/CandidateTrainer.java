@@ -0,0 +1,152 @@
+/**
+ * CandidateTrainer.java
+ * Trains several candidate weak learners concurrently on the common
+ * ForkJoinPool against the frozen training distribution of one boosting
+ * round, then picks one of them by a configurable policy.
+ *
+ * Each candidate draws its feature subset from its own SplittableRandom
+ * stream, split from a master stream in candidate order on the calling
+ * thread, and candidates are selected by index rather than by completion
+ * order. A booster run with the same seed and candidate count therefore
+ * recruits the same learners regardless of thread scheduling.
+ */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class CandidateTrainer {
+	/** How to choose among the candidates of one batch */
+	public enum Policy {
+		FIRST_PASSING,	// lowest-indexed candidate that passes
+		BEST			// passing candidate with the lowest score
+	}
+
+	/**
+	 * Booster-specific measure of a trained candidate on the current
+	 * distribution. Lower scores are better. Called concurrently.
+	 */
+	public interface Scorer {
+		double score(WeakLearner wl);
+		boolean passes(double score);
+	}
+
+	/** Outcome of one batch of candidates */
+	public static class Result {
+		WeakLearner[] candidates;
+		double[] scores;
+		int chosen;		// index of the chosen candidate, -1 if none passed
+		int best;		// index of the lowest-scoring candidate
+
+		/** The chosen candidate, or null if no candidate passed */
+		public WeakLearner getChosen() {
+			return (chosen < 0) ? null : candidates[chosen];
+		}
+
+		/** The lowest-scoring candidate, whether or not it passed */
+		public WeakLearner getBest() {
+			return candidates[best];
+		}
+
+		public double getScore(WeakLearner wl) {
+			for (int i = 0; i < candidates.length; i++) {
+				if (candidates[i] == wl) {
+					return scores[i];
+				}
+			}
+			return Double.NaN;
+		}
+
+		/** Number of candidates that were not chosen */
+		public int getRejectedCount() {
+			return (chosen < 0) ? candidates.length : candidates.length - 1;
+		}
+	}
+
+	private final int candidateCount;
+	private final Policy policy;
+	private final SplittableRandom master;
+
+	/**
+	 * @param candidateCount number of candidates (P) trained per batch
+	 * @param policy how to choose among passing candidates
+	 * @param seed seed of the master random stream
+	 */
+	public CandidateTrainer(int candidateCount, Policy policy, long seed) {
+		this.candidateCount = Math.max(1, candidateCount);
+		this.policy = policy;
+		this.master = new SplittableRandom(seed);
+	}
+
+	public int getCandidateCount() {
+		return candidateCount;
+	}
+
+	/**
+	 * Train and score one batch of candidates concurrently.
+	 * The training set and statistics must not change until this returns.
+	 */
+	public Result trainBatch(TrainingSet training_set,
+			SufficientStatistics stats, Scorer scorer) {
+		Result result = new Result();
+		result.candidates = new WeakLearner[candidateCount];
+		result.scores = new double[candidateCount];
+
+		// Split the streams in candidate order before anything runs.
+		CandidateTask[] tasks = new CandidateTask[candidateCount];
+		for (int i = 0; i < candidateCount; i++) {
+			tasks[i] = new CandidateTask(training_set, stats, scorer,
+					master.split(), result, i);
+		}
+		// Tasks forked outside a pool run on the common pool, shared by all
+		// trainers, so no trainer owns threads that outlive its training.
+		ForkJoinTask.invokeAll(tasks);
+
+		result.chosen = -1;
+		result.best = 0;
+		for (int i = 0; i < candidateCount; i++) {
+			double score = result.scores[i];
+			if (score < result.scores[result.best]) {
+				result.best = i;
+			}
+			if (scorer.passes(score)) {
+				if (result.chosen < 0) {
+					result.chosen = i;
+				} else if (policy == Policy.BEST
+						&& score < result.scores[result.chosen]) {
+					result.chosen = i;
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Trains and scores candidate index of a batch into result */
+	private static class CandidateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final TrainingSet training_set;
+		private final SufficientStatistics stats;
+		private final Scorer scorer;
+		private final SplittableRandom stream;
+		private final Result result;
+		private final int index;
+
+		CandidateTask(TrainingSet training_set, SufficientStatistics stats,
+				Scorer scorer, SplittableRandom stream, Result result,
+				int index) {
+			this.training_set = training_set;
+			this.stats = stats;
+			this.scorer = scorer;
+			this.stream = stream;
+			this.result = result;
+			this.index = index;
+		}
+
+		protected void compute() {
+			WeakLearner wl = new WeakLearner(training_set, stats, stream);
+			wl.train();
+			result.candidates[index] = wl;
+			result.scores[index] = scorer.score(wl);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * CommitteeState.java
+ * Running committee predictions on a fixed set of examples.
+ *
+ * The committee prediction for example i is
+ * 		SUM { ct * ft(x(i)) } / SUM { ct }
+ * The state keeps the numerator of every example and the shared
+ * denominator, and adds one learner's terms when it is recruited. The
+ * committee's prediction or error on the set is then available in O(N) at
+ * any round, instead of re-evaluating every learner on every example.
+ */
+
+public class CommitteeState {
+	private TrainingSet set;
+	private double[] numerator;		// SUM { ct * ft(x(i)) } for each example
+	private double denominator;		// SUM { ct }
+	private int learners;			// Number of learners added
+
+	/** Constructor - Start with an empty committee on the given examples */
+	public CommitteeState(TrainingSet set) {
+		this.set = set;
+		this.numerator = new double[set.size()];
+		this.denominator = 0;
+		this.learners = 0;
+	}
+
+	/** The examples this state tracks */
+	public TrainingSet getSet() {
+		return set;
+	}
+
+	/**
+	 * Add a recruited learner, whose combination coefficient must already be
+	 * set. The learner's cached predictions are used if this is its
+	 * training set.
+	 */
+	public void add(WeakLearner wl) {
+		double ct = wl.getCombCoef();
+		for (int i = 0; i < numerator.length; i++) {
+			numerator[i] += ct * wl.getHypothesis(set, i);
+		}
+		denominator += ct;
+		learners++;
+	}
+
+	/** Committee prediction for example i, 0 if the committee is empty */
+	public double getPrediction(int i) {
+		if (learners == 0) return 0;
+		return numerator[i] / denominator;
+	}
+
+	/** Average relative error abs(error / target) of the committee */
+	public double getRelativeError() {
+		double error = 0.0;
+		for (int i = 0; i < numerator.length; i++) {
+			double target = set.getTarget(i);
+			error += Math.abs((getPrediction(i) - target) / target);
+		}
+		return error / numerator.length;
+	}
+}
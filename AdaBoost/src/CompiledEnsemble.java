@@ -0,0 +1,257 @@
+/**
+ * CompiledEnsemble.java
+ * An immutable, flattened form of a trained weak learner committee for fast
+ * scoring.
+ *
+ * The committee predicts SUM { ct * ft(x) } / SUM { ct }. Compiling folds
+ * the normalized coefficients ct / SUM { ct } into the learners' theta:
+ *
+ * - If every learner uses the linear basis, the committee is itself one
+ *   linear model, so all learners collapse into a single weight vector over
+ *   the bias and every raw feature (37 wide for our 36 features).
+ * - Otherwise the learners are kept as one T x basisSize coefficient matrix
+ *   with a T x k table of the raw feature indices each learner reads.
+ *
+ * Predictions agree with the committee's getPrediction up to floating point
+ * rounding, since the sums are regrouped.
+ */
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+
+public class CompiledEnsemble {
+	private final int dim;			// Number of raw input features
+	private final boolean linear;	// True if collapsed to one linear model
+
+	/* Linear form: weights[0] is the bias, weights[1 + j] weighs feature j */
+	private final double[] weights;
+
+	/* General form: learner t reads raw features index[t*k .. t*k + k - 1]
+	 * and weighs its basis vector with coef[t*basisSize .. ] */
+	private final int learners;
+	private final int k;
+	private final int basisSize;
+	private final boolean quadratic;	// True if the basis has x_i * x_j terms
+	private final int[] index;
+	private final double[] coef;
+
+	/** Constructor - Linear form */
+	CompiledEnsemble(int dim, double[] weights) {
+		this.dim = dim;
+		this.linear = true;
+		this.weights = weights;
+		this.learners = 0;
+		this.k = 0;
+		this.basisSize = 0;
+		this.quadratic = false;
+		this.index = null;
+		this.coef = null;
+	}
+
+	/** Constructor - General form with T learners of k features each */
+	CompiledEnsemble(int dim, int learners, int k, int[] index, double[] coef) {
+		this.dim = dim;
+		this.linear = false;
+		this.weights = null;
+		this.learners = learners;
+		this.k = k;
+		this.basisSize = coef.length / Math.max(learners, 1);
+		this.quadratic = basisSize > k + 1;
+		this.index = index;
+		this.coef = coef;
+	}
+
+	/**
+	 * Compile a trained committee whose learners take dim raw features.
+	 * An empty committee compiles to a model that always predicts 0, as the
+	 * boosters' getPrediction does.
+	 */
+	public static CompiledEnsemble compile(ArrayList<WeakLearner> committee,
+			int dim) {
+		int learners = committee.size();
+		int[][] subsets = new int[learners][];
+		double[][] thetas = new double[learners][];
+		double[] combCoefs = new double[learners];
+		for (int t = 0; t < learners; t++) {
+			WeakLearner wl = committee.get(t);
+			subsets[t] = wl.getSubset();
+			thetas[t] = wl.getTheta();
+			combCoefs[t] = wl.getCombCoef();
+		}
+		return compile(dim, subsets, thetas, combCoefs);
+	}
+
+	/**
+	 * Compile a committee given as each learner's feature subset, theta and
+	 * combination coefficient, e.g. as read back from a ModelFile.
+	 * All learners must use subsets of the same size.
+	 */
+	public static CompiledEnsemble compile(int dim, int[][] subsets,
+			double[][] thetas, double[] combCoefs) {
+		int learners = combCoefs.length;
+		double sumOfWeights = 0;
+		boolean allLinear = true;
+		for (int t = 0; t < learners; t++) {
+			sumOfWeights += combCoefs[t];
+			allLinear &= (thetas[t].length == subsets[t].length + 1);
+		}
+
+		if (allLinear) {
+			double[] weights = new double[dim + 1];
+			for (int t = 0; t < learners; t++) {
+				double c = combCoefs[t] / sumOfWeights;
+				double[] theta = thetas[t];
+				int[] subset = subsets[t];
+				weights[0] += c * theta[0];
+				for (int j = 0; j < subset.length; j++) {
+					weights[1 + subset[j]] += c * theta[1 + j];
+				}
+			}
+			return new CompiledEnsemble(dim, weights);
+		}
+
+		int k = subsets[0].length;
+		int basisSize = thetas[0].length;
+		int[] index = new int[learners * k];
+		double[] coef = new double[learners * basisSize];
+		for (int t = 0; t < learners; t++) {
+			double c = combCoefs[t] / sumOfWeights;
+			double[] theta = thetas[t];
+			System.arraycopy(subsets[t], 0, index, t * k, k);
+			for (int j = 0; j < basisSize; j++) {
+				coef[t * basisSize + j] = c * theta[j];
+			}
+		}
+		return new CompiledEnsemble(dim, learners, k, index, coef);
+	}
+
+	/** Number of raw input features expected per example */
+	public int getInputDim() {
+		return dim;
+	}
+
+	public boolean isLinear() {
+		return linear;
+	}
+
+	/** Predicted target for one raw input vector */
+	public double predict(double[] input) {
+		return predict(input, 0);
+	}
+
+	/** Predict every row of a batch of raw input vectors */
+	public double[] predictAll(double[][] inputs) {
+		double[] out = new double[inputs.length];
+		if (linear) {
+			for (int r = 0; r < inputs.length; r++) {
+				out[r] = predictLinear(inputs[r], 0);
+			}
+			return out;
+		}
+		// One learner at a time over the whole batch, so its coefficients
+		// stay in cache. Learners are still summed in order for each row.
+		for (int t = 0; t < learners; t++) {
+			for (int r = 0; r < inputs.length; r++) {
+				out[r] += learnerTerm(t, inputs[r], 0);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Predict a batch of raw input vectors stored row-major in the remaining
+	 * content of a buffer (dim values per row). The buffer's position is not
+	 * changed.
+	 */
+	public double[] predictAll(DoubleBuffer inputs) {
+		int rows = inputs.remaining() / dim;
+		double[] out = new double[rows];
+		if (inputs.hasArray()) {
+			double[] array = inputs.array();
+			int offset = inputs.arrayOffset() + inputs.position();
+			if (linear) {
+				for (int r = 0; r < rows; r++) {
+					out[r] = predictLinear(array, offset + r * dim);
+				}
+			} else {
+				for (int t = 0; t < learners; t++) {
+					for (int r = 0; r < rows; r++) {
+						out[r] += learnerTerm(t, array, offset + r * dim);
+					}
+				}
+			}
+		} else {
+			// Direct or mapped buffer: copy one row at a time
+			double[] row = new double[dim];
+			int position = inputs.position();
+			for (int r = 0; r < rows; r++) {
+				for (int j = 0; j < dim; j++) {
+					row[j] = inputs.get(position + r * dim + j);
+				}
+				out[r] = predict(row, 0);
+			}
+		}
+		return out;
+	}
+
+	/** Predict the raw input vector starting at input[offset] */
+	private double predict(double[] input, int offset) {
+		if (linear) {
+			return predictLinear(input, offset);
+		}
+		return predictGeneral(input, offset);
+	}
+
+	/**
+	 * Dot product of the folded weights with [1, x]. Four independent
+	 * accumulators break the add dependency chain so the JIT can overlap the
+	 * multiply-adds.
+	 */
+	private double predictLinear(double[] x, int offset) {
+		double s0 = weights[0];
+		double s1 = 0;
+		double s2 = 0;
+		double s3 = 0;
+		int j = 0;
+		for (; j + 3 < dim; j += 4) {
+			s0 += weights[j + 1] * x[offset + j];
+			s1 += weights[j + 2] * x[offset + j + 1];
+			s2 += weights[j + 3] * x[offset + j + 2];
+			s3 += weights[j + 4] * x[offset + j + 3];
+		}
+		for (; j < dim; j++) {
+			s0 += weights[j + 1] * x[offset + j];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/** Sum of every learner's term, in learner order */
+	private double predictGeneral(double[] x, int offset) {
+		double prediction = 0;
+		for (int t = 0; t < learners; t++) {
+			prediction += learnerTerm(t, x, offset);
+		}
+		return prediction;
+	}
+
+	/** Learner t's basis vector weighed by its folded coefficients, with
+	 *  basis terms in WeakLearner order: bias, linear, then x_i * x_j for
+	 *  i <= j */
+	private double learnerTerm(int t, double[] x, int offset) {
+		int idx = t * k;
+		int b = t * basisSize;
+		double p = coef[b++];
+		for (int i = 0; i < k; i++) {
+			p += coef[b++] * x[offset + index[idx + i]];
+		}
+		if (quadratic) {
+			for (int i = 0; i < k; i++) {
+				double xi = x[offset + index[idx + i]];
+				for (int j = i; j < k; j++) {
+					p += coef[b++] * xi * x[offset + index[idx + j]];
+				}
+			}
+		}
+		return p;
+	}
+}
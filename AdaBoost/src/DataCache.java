@@ -0,0 +1,197 @@
+/**
+ * DataCache.java
+ * Binary columnar cache of a parsed SEASON CSV, written next to the CSV the
+ * first time a DataParser reads it, as
+ * 		<csv>.<target column>.cache				training examples
+ * 		<csv>.<target column>.b<B>.cache		test examples with B bet columns
+ * Later reads map the cache through a FileChannel and bulk-copy its columns
+ * instead of parsing text.
+ *
+ * Layout (big-endian, as written by DataOutputStream):
+ * 		int		MAGIC, VERSION
+ * 		long	source CSV last-modified time and length
+ * 		int		rows, feature column count (dim), target column,
+ * 				delimiter character, bet column count (B, 0 for training
+ * 				files)
+ * 		int		dim feature column numbers, B bet column numbers
+ * 		padding to a multiple of 8 bytes
+ * 		double	dim feature columns of rows values each, the target column,
+ * 				then B bet columns
+ *
+ * A cache is used only if the CSV still has the recorded modification time
+ * and length, and the parser is configured with the same delimiter and
+ * target, feature and bet columns. Otherwise the CSV is parsed and the cache rewritten.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class DataCache {
+	public static final int MAGIC = 0x4E424143;	// "NBAC"
+	public static final int VERSION = 2;
+	public static final String SUFFIX = ".cache";
+
+	/** The cache file of a CSV read with the given target column and number
+	 *  of bet columns. Parsers for different targets (e.g. spread and total),
+	 *  and training and test reads of a CSV, keep separate caches. */
+	static File cacheFile(String csvPath, int targetCol, int betCount) {
+		return new File(csvPath + "." + targetCol +
+				((betCount > 0) ? ".b" + betCount : "") + SUFFIX);
+	}
+
+	/**
+	 * Read the cached examples of a CSV into a new set.
+	 *
+	 * @return the examples, or null if there is no valid cache for the CSV
+	 * 		and column configuration
+	 */
+	static TrainingSet read(String csvPath, char delimiter, int targetCol,
+			int[] featureCols, int[] betCols) {
+		int[] wantedBets = (betCols == null) ? new int[0] : betCols;
+		File csv = new File(csvPath);
+		File cache = cacheFile(csvPath, targetCol, wantedBets.length);
+		if (!csv.isFile() || !cache.isFile()) {
+			return null;
+		}
+		try {
+			FileChannel channel = FileChannel.open(cache.toPath(),
+					StandardOpenOption.READ);
+			MappedByteBuffer map;
+			try {
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+			} finally {
+				channel.close();
+			}
+
+			if (map.getInt() != MAGIC || map.getInt() != VERSION
+					|| map.getLong() != csv.lastModified()
+					|| map.getLong() != csv.length()) {
+				return null;
+			}
+			int rows = map.getInt();
+			int dim = map.getInt();
+			int cachedTarget = map.getInt();
+			int cachedDelimiter = map.getInt();
+			int betCount = map.getInt();
+			int[] cachedFeatures = new int[dim];
+			for (int j = 0; j < dim; j++) {
+				cachedFeatures[j] = map.getInt();
+			}
+			int[] cachedBets = new int[betCount];
+			for (int b = 0; b < betCount; b++) {
+				cachedBets[b] = map.getInt();
+			}
+			if (cachedTarget != targetCol || cachedDelimiter != delimiter
+					|| !Arrays.equals(cachedFeatures, featureCols)
+					|| !Arrays.equals(cachedBets, wantedBets)) {
+				return null;
+			}
+			map.position(align(map.position()));
+
+			DoubleBuffer values = map.asDoubleBuffer();
+			double[] featureColumns = new double[dim * rows];
+			double[] targetColumn = new double[rows];
+			double[] cutoffColumns = (betCount > 0) ?
+					new double[betCount * rows] : null;
+			values.get(featureColumns);
+			values.get(targetColumn);
+			if (cutoffColumns != null) {
+				values.get(cutoffColumns);
+			}
+
+			TrainingSet set = new TrainingSet(dim, betCount > 0, rows);
+			set.addColumns(featureColumns, targetColumn, cutoffColumns, rows);
+			return set;
+		} catch (Exception exc) {
+			// Truncated or unreadable cache; fall back to the CSV
+			return null;
+		}
+	}
+
+	/**
+	 * Write the examples of set, which were just parsed from csvPath, as the
+	 * CSV's cache. Failing to write is not an error;
+	 * the CSV is simply parsed again next time.
+	 */
+	static void write(String csvPath, char delimiter, int targetCol,
+			int[] featureCols, int[] betCols, TrainingSet set) {
+		int betCount = (betCols == null) ? 0 : betCols.length;
+		File csv = new File(csvPath);
+		File cache = cacheFile(csvPath, targetCol, betCount);
+		int rows = set.size();
+		int dim = set.getInputDim();
+		if (betCount > 0 && !set.hasBetCutoffs()) {
+			return;		// cutoffs requested of a set without them
+		}
+		File partial = null;
+		try {
+			// A temp file of its own, in case other parsers write this cache
+			partial = File.createTempFile(cache.getName(), ".tmp",
+					cache.getAbsoluteFile().getParentFile());
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(partial)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(csv.lastModified());
+				out.writeLong(csv.length());
+				out.writeInt(rows);
+				out.writeInt(dim);
+				out.writeInt(targetCol);
+				out.writeInt(delimiter);
+				out.writeInt(betCount);
+				for (int j = 0; j < dim; j++) {
+					out.writeInt(featureCols[j]);
+				}
+				for (int b = 0; b < betCount; b++) {
+					out.writeInt(betCols[b]);
+				}
+				while (out.size() != align(out.size())) {
+					out.writeByte(0);
+				}
+
+				double[] features = set.getFeatureMatrix();
+				for (int j = 0; j < dim; j++) {
+					for (int i = 0; i < rows; i++) {
+						out.writeDouble(features[i * dim + j]);
+					}
+				}
+				for (int i = 0; i < rows; i++) {
+					out.writeDouble(set.getTarget(i));
+				}
+				for (int b = 0; b < betCount; b++) {
+					for (int i = 0; i < rows; i++) {
+						out.writeDouble(set.getBetCutoff(i, b));
+					}
+				}
+			} finally {
+				out.close();
+			}
+			// Replace any stale cache only once the new one is complete
+			if (!partial.renameTo(cache)) {
+				cache.delete();
+				if (!partial.renameTo(cache)) {
+					partial.delete();
+				}
+			}
+		} catch (IOException exc) {
+			if (partial != null) {
+				partial.delete();
+			}
+		}
+	}
+
+	/** Round up to a multiple of 8 bytes */
+	private static int align(int position) {
+		return (position + 7) & ~7;
+	}
+}
@@ -1,140 +1,190 @@
 /**
  * DataParser.java
- * Reads in data from semicolon-delimited text file and initializes instances
- * of TrainingExample class based on data.
- * To use: Pass processFile the FULL path (from root directory) of the txt file
+ * Reads in data from comma-delimited text files into dense TrainingSets.
+ * Each parser holds its own column configuration and no other state, so one
+ * parser may be shared by several threads, and several parsers with
+ * different configurations may be used at once.
+ * parseFiles loads a list of files (e.g. several seasons) in parallel, one
+ * task per file, and concatenates them in list order.
+ * Parsed files are cached in binary form (see DataCache), so later runs
+ * map the cache instead of parsing the text again.
+ * To use: Pass parseFile the FULL path (from root directory) of the txt file
  * to read
- * 
+ *
  * @author Michelle Shu, with major parts copied from Gediminas Bertasius
  * January 30, 2013
  */
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class DataParser {
-	static String DELIMITER = ",";
-	static int TARGET_COL = 37;  // controls which column is the target
-	static int[] FEATURE_COL;
-	static {
-		FEATURE_COL = new int[36];
-		for (int i = 0; i < 36; i++) {
-			FEATURE_COL[i] = i;
-		}
+	public static final String DEFAULT_DELIMITER = ",";
+	public static final int DEFAULT_TARGET_COL = 37;	// sum of scores
+	public static final int FEATURE_COUNT = 36;
+	private static final int[] DEFAULT_BET_COL = {41, 42};
+
+	private final String delimiter;
+	private final int targetCol;	// controls which column is the target
+	private final int[] featureCols;
+	private final int[] betCols;
+	/* If true, keep a binary DataCache of each file read next to it */
+	private volatile boolean useCache = true;
+
+	/** Constructor - Parser for the SEASON files' default layout */
+	public DataParser() {
+		this(DEFAULT_DELIMITER, DEFAULT_TARGET_COL, defaultFeatureColumns());
 	}
-	static int[] BET_COL = {41, 42};
-	public static ArrayList<TrainingExample> examplesIn = 
-			new ArrayList<TrainingExample>();
 
-	public static void clear() {
-		examplesIn = new ArrayList<TrainingExample>();
-	}
-	
-	public static void configParser(String delim, int target, int[] cols) {
-		DELIMITER = delim;
-		TARGET_COL = target;
-		FEATURE_COL = cols;
+	/** Constructor - Parser reading features cols and target column target */
+	public DataParser(String delim, int target, int[] cols) {
+		this.delimiter = delim;
+		this.targetCol = target;
+		this.featureCols = cols.clone();
+		this.betCols = DEFAULT_BET_COL.clone();
 	}
 
-	/** Get all examples that have already been read. */
-	public static ArrayList<TrainingExample> getData() {
-		return examplesIn;
+	/** Columns 0 .. FEATURE_COUNT - 1, the features of the SEASON files */
+	public static int[] defaultFeatureColumns() {
+		int[] cols = new int[FEATURE_COUNT];
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			cols[i] = i;
+		}
+		return cols;
 	}
 
-	 /** Construct new TrainingExample from input and add it to examplesIn */
-	private static void addExample(double[] input, double target) {
-		TrainingExample newExample = new TrainingExample(input, target);
-		examplesIn.add(newExample);
-	}
-	
-	private static void addExample(double[] input, double target, 
-			double[] betting_cutoffs) {
-		TrainingExample newExample = new TrainingExample(input, target, 
-				betting_cutoffs);
-		examplesIn.add(newExample);
+	/** Number of features read per example */
+	public int getInputDim() {
+		return featureCols.length;
 	}
 
-	/** Take one line from file, break it into components, pass to addExample 
-	 *  Use this case for training example. */
-	private static void parseLineTrain(String line) {
-		String[] lineComponents = line.split(DELIMITER);
-
-		// input will store feature vector x
-		double[] input = new double[FEATURE_COL.length];
-		// target will store the target value y
-		double target = Double.parseDouble(lineComponents[TARGET_COL]);
-
-		for (int i = 0; i < FEATURE_COL.length; i++) {
-			input[i] = Double.parseDouble(lineComponents[FEATURE_COL[i]]);
-		}
-
-		addExample(input, target);
+	public void setUseCache(boolean useCache) {
+		this.useCache = useCache;
 	}
-	
-	/** Take one line from file, break it into components, pass to addExample 
-	 *  Use this case for testing example. (include betting data) */
-	private static void parseLineTest(String line) {
-		String[] lineComponents = line.split(DELIMITER);
 
+	/**
+	 * Reads the feature, target and (for test files) betting cutoff columns
+	 * of each row straight from the tokenizer into reused arrays, and appends
+	 * them to the file's set, which copies them.
+	 */
+	private class RowParser implements CsvTokenizer.Handler {
+		private final String filepath;
+		private final boolean test;
+		private final TrainingSet examples;
 		// input will store feature vector x
-		double[] input = new double[FEATURE_COL.length];
-		// target will store the target value y
-		double target = Double.parseDouble(lineComponents[TARGET_COL]);
+		private final double[] input = new double[featureCols.length];
+		// betting cutoffs stores the cutoffs for cumulative and difference
+		// bets from OddShark.com
+		private final double[] betting_cutoffs = new double[betCols.length];
+
+		RowParser(String filepath, boolean test, TrainingSet examples) {
+			this.filepath = filepath;
+			this.test = test;
+			this.examples = examples;
+		}
 
-		for (int i = 0; i < FEATURE_COL.length; i++) {
-			input[i] = Double.parseDouble(lineComponents[FEATURE_COL[i]]);
+		public void row(CsvTokenizer row) throws CsvTokenizer.FormatException {
+			// target will store the target value y
+			double target = row.getDouble(targetCol);
+			row.getDoubles(featureCols, input);
+			if (test) {
+				row.getDoubles(betCols, betting_cutoffs);
+				examples.addExample(input, target, betting_cutoffs);
+			} else {
+				examples.addExample(input, target);
+			}
 		}
-		// betting cutoffs stores the cutoffs for cumulative and difference bets
-		// from OddShark.com
-		double[] betting_cutoffs = new double[BET_COL.length];
-		betting_cutoffs[0] = Double.parseDouble(lineComponents[BET_COL[0]]);
-		betting_cutoffs[1] = Double.parseDouble(lineComponents[BET_COL[1]]);
 
-		addExample(input, target, betting_cutoffs);
+		public void malformed(CsvTokenizer.FormatException e) {
+			System.err.println(filepath + ": skipped " + e.getMessage());
+		}
 	}
 
-	/** Read entire file, processing line by line 
+	/**
+	 * Read entire file into a new set.
 	 * Test is true if it is a test example, in which case we store betting
-	 * cutoff data. */
-	public static void processFile(String filepath, boolean test) {
-		try {	
-			// Open input streams
-			FileInputStream fstream = new FileInputStream(filepath);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-
-			if (! test) {
-				// Pass line by line to parseLineTrain
-				String line;
-				while ((line = reader.readLine()) != null) {
-					parseLineTrain(line);
-				}
+	 * cutoff data. An unreadable file is reported and gives an empty set.
+	 */
+	public TrainingSet parseFile(String filepath, boolean test) {
+		int[] bets = test ? betCols : null;
+		if (useCache) {
+			TrainingSet cached = DataCache.read(filepath, delimiter.charAt(0),
+					targetCol, featureCols, bets);
+			if (cached != null) {
+				return cached;
 			}
-			
-			if (test) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					parseLineTest(line);
-				}
+		}
+
+		TrainingSet examples = new TrainingSet(featureCols.length, test);
+		try {
+			new CsvTokenizer(delimiter.charAt(0)).parse(filepath,
+					new RowParser(filepath, test, examples));
+
+			if (useCache) {
+				DataCache.write(filepath, delimiter.charAt(0), targetCol,
+						featureCols, bets, examples);
 			}
+		} catch (IOException exc) {
+			System.err.println("Error reading file " + filepath + ": " +
+					exc.getMessage());
+		}
+		return examples;
+	}
 
-			// Close input streams
-			reader.close();
-			in.close();
-			fstream.close();
+	/**
+	 * Read several files concurrently, one task per file on the common
+	 * ForkJoinPool, and concatenate their examples in the order of
+	 * filepaths. The result does not depend on which file finishes first.
+	 */
+	public TrainingSet parseFiles(List<String> filepaths, boolean test) {
+		TrainingSet[] parts = new TrainingSet[filepaths.size()];
+		ParseTask[] tasks = new ParseTask[parts.length];
+		for (int f = 0; f < parts.length; f++) {
+			tasks[f] = new ParseTask(this, filepaths.get(f), test, parts, f);
+		}
+		// Tasks forked outside a pool run on the common pool
+		ForkJoinTask.invokeAll(tasks);
 
-		} catch (Exception exc) {
-			System.err.println("Error reading file.");
+		int total = 0;
+		for (TrainingSet part : parts) {
+			total += part.size();
+		}
+		TrainingSet examples = new TrainingSet(featureCols.length, test, total);
+		for (TrainingSet part : parts) {
+			examples.addAll(part);
 		}
+		return examples;
 	}
-	
+
+	/** Parses one file of parseFiles into parts[index] */
+	private static class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DataParser parser;
+		private final String filepath;
+		private final boolean test;
+		private final TrainingSet[] parts;
+		private final int index;
+
+		ParseTask(DataParser parser, String filepath, boolean test,
+				TrainingSet[] parts, int index) {
+			this.parser = parser;
+			this.filepath = filepath;
+			this.test = test;
+			this.parts = parts;
+			this.index = index;
+		}
+
+		protected void compute() {
+			parts[index] = parser.parseFile(filepath, test);
+		}
+	}
+
 	public static void main(String[] args) {
-		processFile("data/SEASON-2012-TEST.csv", true);
-		ArrayList<TrainingExample> data = getData();
+		TrainingSet data = new DataParser().parseFile(
+				"data/2012-SEASON-TEST.csv", true);
 		System.out.println(data.size());
-		System.out.println(data.get(87).getBetCutoff(0));
+		System.out.println(data.getBetCutoff(87, 0));
 	}
-}
\ No newline at end of file
+}
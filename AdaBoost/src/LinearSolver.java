@@ -0,0 +1,72 @@
+/**
+ * LinearSolver.java
+ * Small dense solvers for the symmetric positive definite systems that come
+ * up when a weak learner is fit by weighted (ridge) least squares.
+ * Matrices are stored row-major in a flat double[] of n x n entries.
+ */
+
+public class LinearSolver {
+	/* Reject a system whose estimated condition number, taken as the squared
+	 * ratio of the largest to the smallest Cholesky pivot, exceeds this. */
+	public static final double MAX_CONDITION = 1e12;
+
+	/**
+	 * Solve A x = b by Cholesky decomposition A = L L^T.
+	 * Only the lower triangle of A is read. A and b are left unchanged.
+	 *
+	 * @param a symmetric positive definite n x n matrix, row-major
+	 * @param b right-hand side of length n
+	 * @param n dimension of the system
+	 * @param x receives the solution
+	 * @return false if A is not positive definite or is ill-conditioned, in
+	 *         which case x is not modified
+	 */
+	public static boolean choleskySolve(double[] a, double[] b, int n,
+			double[] x) {
+		double[] l = new double[n * n];
+		double minPivot = Double.MAX_VALUE;
+		double maxPivot = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = a[i * n + j];
+				for (int k = 0; k < j; k++) {
+					sum -= l[i * n + k] * l[j * n + k];
+				}
+				if (i == j) {
+					if (!(sum > 0)) {
+						return false;	// not positive definite (or NaN)
+					}
+					double pivot = Math.sqrt(sum);
+					l[i * n + i] = pivot;
+					minPivot = Math.min(minPivot, pivot);
+					maxPivot = Math.max(maxPivot, pivot);
+				} else {
+					l[i * n + j] = sum / l[j * n + j];
+				}
+			}
+		}
+		double ratio = maxPivot / minPivot;
+		if (ratio * ratio > MAX_CONDITION) {
+			return false;
+		}
+
+		// Forward substitution: L y = b
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++) {
+				sum -= l[i * n + k] * y[k];
+			}
+			y[i] = sum / l[i * n + i];
+		}
+		// Back substitution: L^T x = y
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = y[i];
+			for (int k = i + 1; k < n; k++) {
+				sum -= l[k * n + i] * x[k];
+			}
+			x[i] = sum / l[i * n + i];
+		}
+		return true;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * LoadGenerator.java
+ * Measures ScoringServer throughput and latency locally. Trains AdaBoostRT
+ * spread and total models on the 2007-2011 seasons, saves them as
+ * ModelFiles, serves them on a free port, and has several client threads
+ * post games from the 2012 season back to back. Every response is checked
+ * against the loaded model's own prediction.
+ *
+ * Run from the AdaBoost directory:
+ * 		java LoadGenerator [clients] [requestsPerClient] [gamesPerRequest]
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class LoadGenerator {
+	private static final String[] SEASONS = {"2007", "2008", "2009", "2010",
+			"2011"};
+	private static final int SPREAD_COL = 36;	// home minus road points
+	private static final int TOTAL_COL = 37;	// sum of points
+
+	/** Train AdaBoostRT for one target column and save it to a temp file */
+	static String trainModel(int targetCol) throws IOException {
+		DataParser parser = new DataParser(DataParser.DEFAULT_DELIMITER,
+				targetCol, DataParser.defaultFeatureColumns());
+		ArrayList<String> files = new ArrayList<String>();
+		for (String season : SEASONS) {
+			files.add("data/" + season + "-SEASON.csv");
+		}
+		AdaBoostRT ada = new AdaBoostRT(parser.parseFiles(files, false));
+		ada.trainAdaBoostRT();
+
+		File file = File.createTempFile("adaboost-" + targetCol, ".model");
+		file.deleteOnExit();
+		ada.save(file.getPath());
+		return file.getPath();
+	}
+
+	/** Post games to url, returning the predictions in the response */
+	static double[] post(URL url, byte[] body, int games) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		out.write(body);
+		out.close();
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("HTTP " + connection.getResponseCode());
+		}
+		double[] predictions = new double[games];
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				connection.getInputStream(), "US-ASCII"));
+		for (int g = 0; g < games; g++) {
+			predictions[g] = Double.parseDouble(reader.readLine());
+		}
+		reader.close();
+		return predictions;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		final int requests = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		final int gamesPerRequest = (args.length > 2) ?
+				Integer.parseInt(args[2]) : 1;
+
+		final ModelFile spreadModel = ModelFile.load(trainModel(SPREAD_COL));
+		final ModelFile totalModel = ModelFile.load(trainModel(TOTAL_COL));
+		final TrainingSet games = new DataParser().parseFile(
+				"data/2012-SEASON.csv", false);
+
+		final ScoringServer server = new ScoringServer(spreadModel,
+				totalModel, 0);
+		server.start();
+		final String base = "http://localhost:" + server.getPort() + "/predict/";
+
+		final long[] latencies = new long[clients * requests];
+		final int[] mismatches = new int[clients];
+		Thread[] threads = new Thread[clients];
+		for (int c = 0; c < clients; c++) {
+			final int client = c;
+			threads[c] = new Thread() {
+				public void run() {
+					try {
+						for (int r = 0; r < requests; r++) {
+							// Alternate models; pick games round-robin
+							boolean isSpread = (r % 2 == 0);
+							ModelFile model = isSpread ? spreadModel : totalModel;
+							URL url = new URL(base + (isSpread ? "spread" : "total"));
+							StringBuilder body = new StringBuilder();
+							double[][] inputs = new double[gamesPerRequest][];
+							for (int g = 0; g < gamesPerRequest; g++) {
+								int i = (client * requests + r + g) % games.size();
+								inputs[g] = games.getInputVector(i);
+								for (int j = 0; j < inputs[g].length; j++) {
+									if (j > 0) body.append(',');
+									body.append(inputs[g][j]);
+								}
+								body.append('\n');
+							}
+							long start = System.nanoTime();
+							double[] predictions = post(url,
+									body.toString().getBytes("US-ASCII"),
+									gamesPerRequest);
+							latencies[client * requests + r] =
+									System.nanoTime() - start;
+							double[] expected = model.predictAll(inputs);
+							for (int g = 0; g < gamesPerRequest; g++) {
+								if (predictions[g] != expected[g]) {
+									mismatches[client]++;
+								}
+							}
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		server.stop();
+
+		Arrays.sort(latencies);
+		int total = latencies.length;
+		int wrong = 0;
+		for (int m : mismatches) {
+			wrong += m;
+		}
+		System.out.println();
+		System.out.println(clients + " clients x " + requests +
+				" requests x " + gamesPerRequest + " games");
+		System.out.println("Throughput: " + (total / seconds) + " requests/s, " +
+				(total * gamesPerRequest / seconds) + " games/s");
+		System.out.println("Latency p50 = " + latencies[total / 2] / 1e6 +
+				" ms  p99 = " + latencies[(int) (total * 0.99)] / 1e6 +
+				" ms  max = " + latencies[total - 1] / 1e6 + " ms");
+		System.out.println("Predictions differing from the model: " + wrong);
+	}
+}
@@ -0,0 +1,390 @@
+/**
+ * ModelFile.java
+ * Versioned binary file format for a trained AdaBoostRT or AdaBoostR
+ * committee, so a scoring process can load a model instead of retraining it
+ * from the CSVs.
+ *
+ * Layout (big-endian, as written by DataOutputStream):
+ * 		int		MAGIC, VERSION
+ * 		int		booster type (ADABOOST_RT or ADABOOST_R)
+ * 		int		dim (raw input features), T (learners), k (subset size),
+ * 				basisSize (length of each theta)
+ * 		int		H, followed by H doubles of booster hyperparameters
+ * 		int		1 if a TrainingSetTransformer follows, else 0
+ * 		[double	dim input offsets, dim input scales, target offset and
+ * 				target scale]
+ * 		T times: double combination coefficient, k int subset indices,
+ * 				basisSize doubles of theta
+ *
+ * Loading maps the file read-only through a FileChannel, so the file is read
+ * from the page cache shared by every JVM on the host that loads it. The
+ * model is a few kilobytes, so the learners are then copied out of the map
+ * and compiled into a CompiledEnsemble.
+ *
+ * predict scores with the compiled ensemble, which regroups the committee's
+ * sums and so agrees with the booster's getPrediction only to within
+ * COMPILED_ULPS. predictCommittee evaluates the learners one at a time in
+ * committee order, as getPrediction(double[]) does, and agrees with it bit
+ * for bit.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class ModelFile {
+	public static final int MAGIC = 0x4E42414D;	// "NBAM"
+	public static final int VERSION = 1;
+
+	public static final int ADABOOST_RT = 1;
+	public static final int ADABOOST_R = 2;
+
+	/* Largest difference between predict and the booster's getPrediction
+	 * allowed by the round-trip check, in ulps of the larger of the
+	 * prediction's magnitude and 1 */
+	public static final double COMPILED_ULPS = 64;
+
+	private final int boosterType;
+	private final double[] hyperparameters;
+	private final TrainingSetTransformer transformer;	// null if none
+	private final int[][] subsets;		// learners as read, in committee order
+	private final double[][] thetas;
+	private final double[] combCoefs;
+	private final CompiledEnsemble ensemble;
+
+	private ModelFile(int boosterType, double[] hyperparameters,
+			TrainingSetTransformer transformer, int dim, int[][] subsets,
+			double[][] thetas, double[] combCoefs) {
+		this.boosterType = boosterType;
+		this.hyperparameters = hyperparameters;
+		this.transformer = transformer;
+		this.subsets = subsets;
+		this.thetas = thetas;
+		this.combCoefs = combCoefs;
+		this.ensemble = CompiledEnsemble.compile(dim, subsets, thetas,
+				combCoefs);
+	}
+
+	/**
+	 * Write a trained committee to path.
+	 *
+	 * @param boosterType ADABOOST_RT or ADABOOST_R
+	 * @param hyperparameters booster settings, in the order the booster's
+	 * 		getHyperparameters documents
+	 * @param transformer normalization applied to the training set, or null
+	 * @param committee recruited learners, with combination coefficients set
+	 * @param dim number of raw input features
+	 */
+	public static void write(String path, int boosterType,
+			double[] hyperparameters, TrainingSetTransformer transformer,
+			ArrayList<WeakLearner> committee, int dim) throws IOException {
+		int learners = committee.size();
+		int k = (learners == 0) ? 0 : committee.get(0).getSubset().length;
+		int basisSize = (learners == 0) ? 0 : committee.get(0).getTheta().length;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(boosterType);
+			out.writeInt(dim);
+			out.writeInt(learners);
+			out.writeInt(k);
+			out.writeInt(basisSize);
+			out.writeInt(hyperparameters.length);
+			for (double h : hyperparameters) {
+				out.writeDouble(h);
+			}
+			if (transformer == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(1);
+				for (int i = 0; i < dim; i++) {
+					out.writeDouble(transformer.inputOffset[i]);
+				}
+				for (int i = 0; i < dim; i++) {
+					out.writeDouble(transformer.inputScale[i]);
+				}
+				out.writeDouble(transformer.targetOffset);
+				out.writeDouble(transformer.targetScale);
+			}
+			for (WeakLearner wl : committee) {
+				int[] subset = wl.getSubset();
+				double[] theta = wl.getTheta();
+				if (subset.length != k || theta.length != basisSize) {
+					throw new IOException("Weak learners differ in basis size");
+				}
+				out.writeDouble(wl.getCombCoef());
+				for (int j = 0; j < k; j++) {
+					out.writeInt(subset[j]);
+				}
+				for (int j = 0; j < basisSize; j++) {
+					out.writeDouble(theta[j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Map a model file and compile its committee */
+	public static ModelFile load(String path) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(path),
+				StandardOpenOption.READ);
+		MappedByteBuffer map;
+		try {
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();	// the mapping stays valid
+		}
+
+		if (map.remaining() < 8 || map.getInt() != MAGIC) {
+			throw new IOException(path + " is not a model file");
+		}
+		int version = map.getInt();
+		if (version != VERSION) {
+			throw new IOException(path + " has unsupported version " + version);
+		}
+		int boosterType = map.getInt();
+		int dim = map.getInt();
+		int learners = map.getInt();
+		int k = map.getInt();
+		int basisSize = map.getInt();
+
+		double[] hyperparameters = new double[map.getInt()];
+		for (int h = 0; h < hyperparameters.length; h++) {
+			hyperparameters[h] = map.getDouble();
+		}
+
+		TrainingSetTransformer transformer = null;
+		if (map.getInt() == 1) {
+			double[] inputOffset = new double[dim];
+			double[] inputScale = new double[dim];
+			for (int i = 0; i < dim; i++) {
+				inputOffset[i] = map.getDouble();
+			}
+			for (int i = 0; i < dim; i++) {
+				inputScale[i] = map.getDouble();
+			}
+			double targetOffset = map.getDouble();
+			double targetScale = map.getDouble();
+			transformer = new TrainingSetTransformer(inputOffset, inputScale,
+					targetOffset, targetScale);
+		}
+
+		int[][] subsets = new int[learners][k];
+		double[][] thetas = new double[learners][basisSize];
+		double[] combCoefs = new double[learners];
+		for (int t = 0; t < learners; t++) {
+			combCoefs[t] = map.getDouble();
+			for (int j = 0; j < k; j++) {
+				subsets[t][j] = map.getInt();
+			}
+			for (int j = 0; j < basisSize; j++) {
+				thetas[t][j] = map.getDouble();
+			}
+		}
+
+		return new ModelFile(boosterType, hyperparameters, transformer, dim,
+				subsets, thetas, combCoefs);
+	}
+
+	public int getBoosterType() {
+		return boosterType;
+	}
+
+	public double[] getHyperparameters() {
+		return hyperparameters.clone();
+	}
+
+	/** The transformer the committee was trained under, or null if none */
+	public TrainingSetTransformer getTransformer() {
+		return transformer;
+	}
+
+	/** The compiled committee, which works on (normalized) training inputs */
+	public CompiledEnsemble getEnsemble() {
+		return ensemble;
+	}
+
+	/**
+	 * Predicted real target for one raw input vector: the input is
+	 * normalized and the committee's output converted back to a real target
+	 * if the model was trained on normalized data.
+	 */
+	public double predict(double[] input) {
+		if (transformer == null) {
+			return ensemble.predict(input);
+		}
+		double[] normalized = new double[input.length];
+		transformer.normalizeInput(input, normalized);
+		return transformer.toRealTarget(ensemble.predict(normalized));
+	}
+
+	/**
+	 * Predicted real target for one raw input vector, summing the learners'
+	 * SUM { ct * ft(x) } / SUM { ct } in committee order exactly as the
+	 * booster's getPrediction(double[]) does. Slower than predict, but bit
+	 * for bit the in-memory booster's prediction.
+	 */
+	public double predictCommittee(double[] input) {
+		double[] x = input;
+		if (transformer != null) {
+			x = new double[input.length];
+			transformer.normalizeInput(input, x);
+		}
+		double prediction = 0;
+		if (combCoefs.length > 0) {
+			double weighted_prediction = 0;
+			double sumOfWeights = 0;
+			for (int t = 0; t < combCoefs.length; t++) {
+				weighted_prediction += (combCoefs[t] *
+						WeakLearner.predictRaw(subsets[t], thetas[t], x, 0));
+				sumOfWeights += combCoefs[t];
+			}
+			prediction = weighted_prediction / sumOfWeights;
+		}
+		return (transformer == null) ? prediction :
+				transformer.toRealTarget(prediction);
+	}
+
+	/** Predicted real targets for a batch of raw input vectors */
+	public double[] predictAll(double[][] inputs) {
+		if (transformer == null) {
+			return ensemble.predictAll(inputs);
+		}
+		double[][] normalized = new double[inputs.length][];
+		for (int r = 0; r < inputs.length; r++) {
+			normalized[r] = new double[inputs[r].length];
+			transformer.normalizeInput(inputs[r], normalized[r]);
+		}
+		double[] out = ensemble.predictAll(normalized);
+		for (int r = 0; r < out.length; r++) {
+			out[r] = transformer.toRealTarget(out[r]);
+		}
+		return out;
+	}
+
+	/** AdaBoostRT's predictions for the raw inputs of set */
+	private static double[] boosterPredictions(AdaBoostRT rt, TrainingSet set) {
+		double[] predictions = new double[set.size()];
+		for (int i = 0; i < set.size(); i++) {
+			predictions[i] = rt.getPrediction(set.getInputVector(i));
+		}
+		return predictions;
+	}
+
+	/** Real targets AdaBoostR predicts for the raw inputs of set, which are
+	 *  normalized the same way its training set was */
+	private static double[] boosterPredictions(AdaBoostR r,
+			TrainingSetTransformer transformer, TrainingSet set) {
+		double[] predictions = new double[set.size()];
+		double[] normalized = new double[set.getInputDim()];
+		for (int i = 0; i < set.size(); i++) {
+			transformer.normalizeInput(set.getInputVector(i), normalized);
+			predictions[i] = transformer.toRealTarget(r.getPrediction(normalized));
+		}
+		return predictions;
+	}
+
+	/** Count of predictCommittee predictions on the raw inputs of set that
+	 *  differ in any bit from expected */
+	private static int countMismatches(ModelFile model, double[] expected,
+			TrainingSet set) {
+		int mismatches = 0;
+		for (int i = 0; i < set.size(); i++) {
+			if (Double.doubleToRawLongBits(expected[i]) != Double.doubleToRawLongBits(
+					model.predictCommittee(set.getInputVector(i)))) {
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/** Largest difference of predict from expected on the raw inputs of set,
+	 *  in ulps of the larger of |expected| and 1 */
+	private static double maxCompiledUlps(ModelFile model, double[] expected,
+			TrainingSet set) {
+		double max = 0;
+		for (int i = 0; i < set.size(); i++) {
+			double diff = Math.abs(model.predict(set.getInputVector(i)) -
+					expected[i]);
+			max = Math.max(max, diff / Math.ulp(Math.max(Math.abs(expected[i]), 1)));
+		}
+		return max;
+	}
+
+	/**
+	 * Round-trip check: train AdaBoostRT and AdaBoostR on the 2010 season,
+	 * save and reload each model, and compare the reloaded predictions with
+	 * the in-memory boosters' getPrediction on the raw inputs of the 2010 and
+	 * 2012 seasons: bit for bit for predictCommittee, and to within
+	 * COMPILED_ULPS for predict. AdaBoostR is trained on a normalized copy of
+	 * the season, since its demarcation test is never passed on the raw
+	 * inputs, and its model applies the same normalization.
+	 *
+	 * Run from the AdaBoost directory: java ModelFile
+	 */
+	public static void main(String[] args) throws IOException {
+		DataParser parser = new DataParser();
+		TrainingSet training_set = parser.parseFile("data/2010-SEASON.csv", false);
+		TrainingSet test_set = parser.parseFile("data/2012-SEASON-TEST.csv", true);
+
+		TrainingSet normalized_set = new TrainingSet(
+				training_set.getInputDim(), false, training_set.size());
+		normalized_set.addAll(training_set);
+		TrainingSetTransformer normalizer =
+				new TrainingSetTransformer(normalized_set);
+		normalizer.transform(normalized_set);
+
+		AdaBoostRT rt = new AdaBoostRT(training_set);
+		rt.trainAdaBoostRT();
+		AdaBoostR r = new AdaBoostR(normalized_set);
+		r.trainAdaBoostR();
+		r.setTransformer(normalizer);
+
+		File rtFile = File.createTempFile("adaboost-rt", ".model");
+		File rFile = File.createTempFile("adaboost-r", ".model");
+		rtFile.deleteOnExit();
+		rFile.deleteOnExit();
+		rt.save(rtFile.getPath());
+		r.save(rFile.getPath());
+
+		long start = System.nanoTime();
+		ModelFile rtModel = ModelFile.load(rtFile.getPath());
+		double loadMs = (System.nanoTime() - start) / 1e6;
+		ModelFile rModel = ModelFile.load(rFile.getPath());
+
+		int mismatches = 0;
+		double maxUlps = 0;
+		for (TrainingSet set : new TrainingSet[] {training_set, test_set}) {
+			double[] rtExpected = boosterPredictions(rt, set);
+			double[] rExpected = boosterPredictions(r, normalizer, set);
+			mismatches += countMismatches(rtModel, rtExpected, set) +
+					countMismatches(rModel, rExpected, set);
+			maxUlps = Math.max(maxUlps, Math.max(
+					maxCompiledUlps(rtModel, rtExpected, set),
+					maxCompiledUlps(rModel, rExpected, set)));
+		}
+
+		System.out.println();
+		System.out.println("AdaBoostRT model: " + rtFile.length() +
+				" bytes, loaded in " + loadMs + " ms");
+		System.out.println("AdaBoostR model: " + rFile.length() + " bytes");
+		System.out.println("Committee predictions differing from in-memory " +
+				"boosters: " + mismatches);
+		System.out.println("Largest compiled prediction difference: " +
+				maxUlps + " ulps (allowed " + COMPILED_ULPS + ")");
+		if (mismatches > 0 || maxUlps > COMPILED_ULPS) {
+			System.exit(1);
+		}
+	}
+}
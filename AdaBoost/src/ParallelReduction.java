@@ -0,0 +1,117 @@
+/**
+ * ParallelReduction.java
+ * Chunked, compensated sums over the examples of a training set.
+ *
+ * The index range is cut into fixed CHUNK_SIZE chunks. Each chunk is summed
+ * with Neumaier (improved Kahan) compensation, and the chunk sums are then
+ * combined in chunk order, again with compensation. Because the chunking
+ * does not depend on how many threads run it, a sum gives bit-identical
+ * results on any number of threads, and also when it runs sequentially on
+ * the calling thread (which it does below SEQUENTIAL_THRESHOLD terms).
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelReduction {
+	public static final int CHUNK_SIZE = 1024;
+	public static final int SEQUENTIAL_THRESHOLD = 16384;
+
+	/** One term of a sum. Must be safe to call from several threads. It may
+	 *  also write per-index results, e.g. updated weights. */
+	public interface Term {
+		double term(int i);
+	}
+
+	/** Sum term(i) for 0 <= i < n, in parallel if n is large enough */
+	public static double sum(int n, Term term) {
+		return sum(n, term, n >= SEQUENTIAL_THRESHOLD);
+	}
+
+	/** Sum term(i) for 0 <= i < n, in parallel on the common pool or
+	 *  sequentially on the calling thread. The result is the same either way. */
+	public static double sum(int n, Term term, boolean parallel) {
+		int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		double[] partials = new double[chunks];
+		if (parallel && chunks > 1) {
+			ForkJoinPool.commonPool().invoke(
+					new ChunkTask(term, n, partials, 0, chunks));
+		} else {
+			for (int c = 0; c < chunks; c++) {
+				partials[c] = sumChunk(term, n, c);
+			}
+		}
+		return neumaierSum(partials, chunks);
+	}
+
+	/** Compensated sum of chunk c */
+	private static double sumChunk(Term term, int n, int c) {
+		int start = c * CHUNK_SIZE;
+		int end = Math.min(n, start + CHUNK_SIZE);
+		double sum = 0;
+		double comp = 0;
+		for (int i = start; i < end; i++) {
+			double x = term.term(i);
+			double t = sum + x;
+			if (Math.abs(sum) >= Math.abs(x)) {
+				comp += (sum - t) + x;
+			} else {
+				comp += (x - t) + sum;
+			}
+			sum = t;
+		}
+		return finish(sum, comp);
+	}
+
+	/** Neumaier sum of the first n values, in order */
+	public static double neumaierSum(double[] values, int n) {
+		double sum = 0;
+		double comp = 0;
+		for (int i = 0; i < n; i++) {
+			double x = values[i];
+			double t = sum + x;
+			if (Math.abs(sum) >= Math.abs(x)) {
+				comp += (sum - t) + x;
+			} else {
+				comp += (x - t) + sum;
+			}
+			sum = t;
+		}
+		return finish(sum, comp);
+	}
+
+	/** The compensated sum, or the plain sum if that is not finite: once a
+	 *  term (or the sum) overflows, the compensation holds Infinity - Infinity
+	 *  and would turn an infinite sum into NaN */
+	private static double finish(double sum, double comp) {
+		return Double.isInfinite(sum) ? sum : sum + comp;
+	}
+
+	/** Computes the partial sums of chunks [from, to), splitting in halves */
+	private static class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Term term;
+		private final int n;
+		private final double[] partials;
+		private final int from;
+		private final int to;
+
+		ChunkTask(Term term, int n, double[] partials, int from, int to) {
+			this.term = term;
+			this.n = n;
+			this.partials = partials;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				partials[from] = sumChunk(term, n, from);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ChunkTask(term, n, partials, from, mid),
+					new ChunkTask(term, n, partials, mid, to));
+		}
+	}
+}
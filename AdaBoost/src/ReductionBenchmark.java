@@ -0,0 +1,78 @@
+/**
+ * ReductionBenchmark.java
+ * Compares sequential and parallel ParallelReduction sums of the AdaBoostR
+ * cost terms, wt(i) * exp[ct * (ft(x(i)) - y(i))^2], while scaling N by
+ * replicating the 2007-2012 seasons. Also checks that both give the same
+ * result, and that an infinite term gives an infinite sum, as plain
+ * summation does.
+ *
+ * Run from the AdaBoost directory: java ReductionBenchmark [maxCopies]
+ */
+
+public class ReductionBenchmark {
+	private static final int REPEATS = 20;
+
+	/** Average milliseconds of one sum over REPEATS runs; result in out[0] */
+	static double timeSum(int n, ParallelReduction.Term term, boolean parallel,
+			double[] out) {
+		out[0] = ParallelReduction.sum(n, term, parallel);	// warm up
+		long start = System.nanoTime();
+		for (int r = 0; r < REPEATS; r++) {
+			out[0] = ParallelReduction.sum(n, term, parallel);
+		}
+		return (System.nanoTime() - start) / 1e6 / REPEATS;
+	}
+
+	public static void main(String[] args) {
+		int maxCopies = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+		TrainingSet seasons = BoostingBenchmark.loadAllSeasons();
+		System.out.println("Threads available: " +
+				Runtime.getRuntime().availableProcessors());
+
+		ParallelReduction.Term infinite = new ParallelReduction.Term() {
+			public double term(int i) {
+				return (i == 3 * ParallelReduction.CHUNK_SIZE / 2) ?
+						Double.POSITIVE_INFINITY : 1.0;
+			}
+		};
+		int m = 4 * ParallelReduction.CHUNK_SIZE;
+		System.out.println("Sum with an infinite term: sequential = " +
+				ParallelReduction.sum(m, infinite, false) + "  parallel = " +
+				ParallelReduction.sum(m, infinite, true) + "  neumaierSum = " +
+				ParallelReduction.neumaierSum(new double[] {1.0,
+						Double.NEGATIVE_INFINITY, 1.0}, 3));
+
+		for (int copies = 1; copies <= maxCopies; copies *= 4) {
+			final TrainingSet training_set = new TrainingSet(
+					seasons.getInputDim(), false, seasons.size() * copies);
+			for (int c = 0; c < copies; c++) {
+				training_set.addAll(seasons);
+			}
+			final int n = training_set.size();
+			for (int i = 0; i < n; i++) {
+				training_set.setWeight(i, 1.0/n);
+				training_set.setRelativeWeight(i, 1.0/n);
+			}
+			final WeakLearner wl = new WeakLearner(training_set);
+			wl.train();
+
+			final double ct = 0.01;
+			final double[] weights = training_set.getWeights();
+			final double[] targets = training_set.getTargets();
+			ParallelReduction.Term cost = new ParallelReduction.Term() {
+				public double term(int i) {
+					double diff = wl.getHypothesis(training_set, i) - targets[i];
+					return weights[i] * Math.exp(ct * diff * diff);
+				}
+			};
+
+			double[] seq = new double[1];
+			double[] par = new double[1];
+			double seqMs = timeSum(n, cost, false, seq);
+			double parMs = timeSum(n, cost, true, par);
+			System.out.println("N = " + n + "  sequential = " + seqMs +
+					" ms  parallel = " + parMs + " ms  speedup = " +
+					(seqMs / parMs) + "  identical = " + (seq[0] == par[0]));
+		}
+	}
+}
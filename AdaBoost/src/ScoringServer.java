@@ -0,0 +1,270 @@
+/**
+ * ScoringServer.java
+ * Local HTTP scoring service for trained committees saved as ModelFiles.
+ * The spread model (home minus road points) and the total model (sum of
+ * points) are served side by side:
+ *
+ * 		POST /predict/spread
+ * 		POST /predict/total
+ *
+ * The request body holds one game per line, each the 36 comma-separated
+ * feature columns in the layout DataParser reads. The response holds one
+ * prediction per line, in the same order.
+ *
+ * Requests are handled on a fixed pool of threads. Each model has a batcher
+ * thread that coalesces the games of all requests arriving within
+ * BATCH_WINDOW_MICROS of each other (up to MAX_BATCH_ROWS games) into one
+ * predictAll pass, then hands every request its slice of the results.
+ *
+ * Run from the AdaBoost directory:
+ * 		java ScoringServer spread.model total.model [port]
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ScoringServer {
+	public static final int DEFAULT_PORT = 8080;
+	private static final int THREADS = 32;		// Request handler threads
+	private static final long BATCH_WINDOW_MICROS = 200;
+	private static final int MAX_BATCH_ROWS = 4096;
+
+	/* The JDK server writes response headers and body separately; without
+	 * TCP_NODELAY each response waits out the client's delayed ACK (~40 ms).
+	 * Must be set before the first HttpServer is created. */
+	static {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Batcher spread;
+	private final Batcher total;
+
+	/** Constructor - Serve the two models on port (0 picks a free port) */
+	public ScoringServer(ModelFile spreadModel, ModelFile totalModel, int port)
+			throws IOException {
+		this.spread = new Batcher("spread", spreadModel);
+		this.total = new Batcher("total", totalModel);
+		this.handlers = Executors.newFixedThreadPool(THREADS);
+		this.server = HttpServer.create(
+				new InetSocketAddress("localhost", port), 0);
+		server.createContext("/predict/spread", new PredictHandler(spread));
+		server.createContext("/predict/total", new PredictHandler(total));
+		server.setExecutor(handlers);
+	}
+
+	public void start() {
+		spread.start();
+		total.start();
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		handlers.shutdown();
+		spread.interrupt();
+		total.interrupt();
+	}
+
+	/** The port the server listens on */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Games of one request waiting to be scored */
+	private static class Pending {
+		final double[][] games;
+		double[] predictions;
+		final CountDownLatch done = new CountDownLatch(1);
+
+		Pending(double[][] games) {
+			this.games = games;
+		}
+	}
+
+	/** Coalesces pending requests for one model into batched passes */
+	private static class Batcher extends Thread {
+		private final ModelFile model;
+		private final LinkedBlockingQueue<Pending> queue =
+				new LinkedBlockingQueue<Pending>();
+
+		Batcher(String name, ModelFile model) {
+			super("batcher-" + name);
+			this.model = model;
+			setDaemon(true);
+		}
+
+		int getInputDim() {
+			return model.getEnsemble().getInputDim();
+		}
+
+		/** Score games with the next batch, blocking until it is done */
+		double[] predict(double[][] games) throws InterruptedException {
+			Pending pending = new Pending(games);
+			queue.put(pending);
+			pending.done.await();
+			return pending.predictions;
+		}
+
+		public void run() {
+			ArrayList<Pending> batch = new ArrayList<Pending>();
+			try {
+				while (true) {
+					// Wait for a first request, then collect whatever else
+					// arrives within the window.
+					batch.add(queue.take());
+					int rows = batch.get(0).games.length;
+					long deadline = System.nanoTime() + BATCH_WINDOW_MICROS * 1000;
+					while (rows < MAX_BATCH_ROWS) {
+						long wait = deadline - System.nanoTime();
+						Pending next = (wait > 0)
+								? queue.poll(wait, TimeUnit.NANOSECONDS)
+								: queue.poll();
+						if (next == null) break;
+						batch.add(next);
+						rows += next.games.length;
+					}
+					score(batch, rows);
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// Server stopped
+			}
+		}
+
+		/** One predictAll pass over every game in the batch */
+		private void score(ArrayList<Pending> batch, int rows) {
+			double[][] games = new double[rows][];
+			int r = 0;
+			for (Pending pending : batch) {
+				System.arraycopy(pending.games, 0, games, r,
+						pending.games.length);
+				r += pending.games.length;
+			}
+			double[] predictions = null;
+			try {
+				predictions = model.predictAll(games);
+			} catch (RuntimeException e) {
+				// Fail this batch only; the batcher keeps serving
+				System.out.println("Failed to score a batch of " + rows +
+						" games on " + getName() + ": " + e);
+				e.printStackTrace();
+			} finally {
+				// Always release the waiting requests; they see null
+				// predictions if the pass failed.
+				r = 0;
+				for (Pending pending : batch) {
+					if (predictions != null) {
+						pending.predictions = new double[pending.games.length];
+						System.arraycopy(predictions, r, pending.predictions,
+								0, pending.games.length);
+					}
+					r += pending.games.length;
+					pending.done.countDown();
+				}
+			}
+		}
+	}
+
+	/** Parses the games of a request and answers with their predictions */
+	private static class PredictHandler implements HttpHandler {
+		private final Batcher batcher;
+
+		PredictHandler(Batcher batcher) {
+			this.batcher = batcher;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equals("POST")) {
+					respond(exchange, 405, "Use POST\n");
+					return;
+				}
+				double[][] games;
+				try {
+					games = parseGames(exchange);
+				} catch (NumberFormatException e) {
+					respond(exchange, 400, e.getMessage() + "\n");
+					return;
+				}
+				double[] predictions = batcher.predict(games);
+				if (predictions == null) {
+					respond(exchange, 500, "Prediction failed\n");
+					return;
+				}
+				StringBuilder body = new StringBuilder();
+				for (double prediction : predictions) {
+					body.append(prediction).append('\n');
+				}
+				respond(exchange, 200, body.toString());
+			} catch (InterruptedException e) {
+				respond(exchange, 503, "Server stopping\n");
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/** One game of the model's input dimension values per line */
+		private double[][] parseGames(HttpExchange exchange) throws IOException {
+			int dim = batcher.getInputDim();
+			ArrayList<double[]> games = new ArrayList<double[]>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					exchange.getRequestBody(), "US-ASCII"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				String[] values = line.split(",");
+				if (values.length != dim) {
+					throw new NumberFormatException("Expected " + dim +
+							" features, found " + values.length);
+				}
+				double[] game = new double[dim];
+				for (int j = 0; j < dim; j++) {
+					game[j] = Double.parseDouble(values[j].trim());
+				}
+				games.add(game);
+			}
+			return games.toArray(new double[games.size()][]);
+		}
+
+		private void respond(HttpExchange exchange, int status, String body)
+				throws IOException {
+			byte[] bytes = body.getBytes("US-ASCII");
+			exchange.getResponseHeaders().set("Content-Type", "text/plain");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println(
+					"Usage: java ScoringServer spread.model total.model [port]");
+			return;
+		}
+		int port = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+		ScoringServer server = new ScoringServer(ModelFile.load(args[0]),
+				ModelFile.load(args[1]), port);
+		server.start();
+		System.out.println("Scoring server listening on port " +
+				server.getPort());
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * SeasonPipeline.java
+ * Builds TrainingSets straight from the RAW game logs written by
+ * NBAStatBrowser, without the SEASON CSV files in between. The seasons are
+ * read and their averages (and, optionally, TeamForm features) calculated
+ * by NBAStatCalculator.processSeasons, and the features of each game are
+ * copied from its statistics into the set as doubles, so no number is
+ * formatted as text and parsed back.
+ *
+ * The examples are the ones DataParser reads from the SEASON files that
+ * NBAStatCalculator writes for the same seasons, in the same (date) order,
+ * with the same features and targets. Those files can still be written
+ * as a side output.
+ *
+ * Run from the AdaBoost directory:
+ * 		java SeasonPipeline [firstSeason lastSeason]
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SeasonPipeline {
+	public static final int SPREAD_COL = 36;	// home minus road points
+	public static final int TOTAL_COL = 37;		// sum of points
+	public static final String RAW_DIR = "../NBAStatFetch/data/";
+
+	private final int targetCol;
+	private final TeamForm form;	// null for the season averages only
+	private final int threads;
+
+	/** Constructor - Pipeline for the season averages of the SEASON files */
+	public SeasonPipeline(int targetCol) {
+		this(targetCol, null);
+	}
+
+	/**
+	 * Constructor - Pipeline adding the form features of the home team and
+	 * then the road team after the season averages, if form is not null
+	 */
+	public SeasonPipeline(int targetCol, TeamForm form) {
+		if (targetCol != SPREAD_COL && targetCol != TOTAL_COL) {
+			throw new IllegalArgumentException("Target column " + targetCol +
+					" is neither the spread nor the total");
+		}
+		this.targetCol = targetCol;
+		this.form = form;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/** Number of features per example */
+	public int getInputDim() {
+		int dim = DataParser.FEATURE_COUNT;
+		if (form != null) {
+			dim += 2 * form.getFeatureCount();
+		}
+		return dim;
+	}
+
+	/** Build the examples of the given RAW files, in order */
+	public TrainingSet build(List<String> rawFiles) {
+		return build(rawFiles, null);
+	}
+
+	/**
+	 * Build the examples of the given RAW files, in order, also writing the
+	 * SEASON file of each RAW file to statFiles if it is not null.
+	 */
+	public TrainingSet build(List<String> rawFiles, List<String> statFiles) {
+		ArrayList<NBAStatCalculator.Season> seasons =
+				NBAStatCalculator.processSeasons(rawFiles, statFiles, form, threads);
+
+		boolean withForm = (form != null);
+		int total = 0;
+		for (NBAStatCalculator.Season season : seasons) {
+			for (Game g : season.getGames()) {
+				if (g.hasFeatures(withForm)) {
+					total++;
+				}
+			}
+		}
+
+		TrainingSet examples = new TrainingSet(getInputDim(), false, total);
+		double[] input = new double[getInputDim()];
+		for (NBAStatCalculator.Season season : seasons) {
+			for (Game g : season.getGames()) {
+				if (g.hasFeatures(withForm)) {
+					g.getFeatures(input, withForm);
+					double target = (targetCol == SPREAD_COL) ?
+							g.getSpread() : g.getTotal();
+					examples.addExample(input, target);
+				}
+			}
+		}
+		return examples;
+	}
+
+	/** RAW files of the seasons first .. last, e.g. 2007 .. 2011 */
+	public static ArrayList<String> rawFiles(int first, int last) {
+		ArrayList<String> files = new ArrayList<String>();
+		for (int season = first; season <= last; season++) {
+			files.add(RAW_DIR + season + "-RAW.csv");
+		}
+		return files;
+	}
+
+	public static void main(String[] args) {
+		int first = (args.length > 1) ? Integer.parseInt(args[0]) : 2007;
+		int last = (args.length > 1) ? Integer.parseInt(args[1]) : 2012;
+		ArrayList<String> files = rawFiles(first, last);
+
+		long start = System.nanoTime();
+		TrainingSet spread = new SeasonPipeline(SPREAD_COL).build(files);
+		System.out.println("Spread: N = " + spread.size() + " in " +
+				(System.nanoTime() - start) / 1e6 + " ms");
+
+		TeamForm form = new TeamForm(new int[] {5, 10}, new double[] {5},
+				NBAStatCalculator.EARLY_SEASON);
+		start = System.nanoTime();
+		TrainingSet total = new SeasonPipeline(TOTAL_COL, form).build(files);
+		System.out.println("Total with form: N = " + total.size() + ", dim = " +
+				total.getInputDim() + " in " +
+				(System.nanoTime() - start) / 1e6 + " ms");
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * SufficientStatistics.java
+ * Weighted sufficient statistics of a training set for linear least squares:
+ * the Gram matrix X'WX and the vector X'Wy over all raw features plus a bias
+ * term, where W holds the current relative weights of the examples.
+ *
+ * Within one boosting round the training distribution is fixed, so the
+ * booster computes these once per weight update. A linear weak learner on
+ * any feature subset then fits theta by slicing its (k+1) x (k+1) block out
+ * of the full matrix and solving it, without another pass over the examples.
+ */
+
+import java.util.Arrays;
+
+public class SufficientStatistics {
+	private int size;		// Number of terms: bias plus all raw features
+	private double[] xtwx;	// size x size Gram matrix X'WX, row-major
+	private double[] xtwy;	// X'Wy
+
+	/** Constructor - Accumulate the statistics of a training set under its
+	 *  current relative weights */
+	public SufficientStatistics(TrainingSet training_set) {
+		int dim = training_set.getInputDim();
+		this.size = dim + 1;
+		this.xtwx = new double[size * size];
+		this.xtwy = new double[size];
+		update(training_set);
+	}
+
+	/** Recompute the statistics after the relative weights have changed */
+	public void update(TrainingSet training_set) {
+		int dim = size - 1;
+		double[] features = training_set.getFeatureMatrix();
+		double[] targets = training_set.getTargets();
+		double[] weights = training_set.getRelativeWeights();
+		Arrays.fill(xtwx, 0);
+		Arrays.fill(xtwy, 0);
+
+		for (int i = 0; i < training_set.size(); i++) {
+			double w = weights[i];
+			int row = i * dim;
+			// bias row/column
+			xtwx[0] += w;
+			xtwy[0] += w * targets[i];
+			for (int j = 0; j < dim; j++) {
+				double wx = w * features[row + j];
+				int r = (j + 1) * size;
+				xtwy[j + 1] += wx * targets[i];
+				xtwx[r] += wx;
+				// lower triangle only, mirrored below
+				for (int k = 0; k <= j; k++) {
+					xtwx[r + k + 1] += wx * features[row + k];
+				}
+			}
+		}
+		for (int j = 0; j < size; j++) {
+			for (int k = j + 1; k < size; k++) {
+				xtwx[j * size + k] = xtwx[k * size + j];
+			}
+		}
+	}
+
+	/** Get the number of raw features covered by these statistics */
+	public int getInputDim() {
+		return size - 1;
+	}
+
+	/**
+	 * Fit the linear model theta = [bias, x_subset[0], ..., x_subset[k-1]]
+	 * by solving the sliced normal equations
+	 * (X_s'WX_s + lambda*I) theta = X_s'Wy, with the bias unregularized.
+	 *
+	 * @param subset raw feature indices used by the model
+	 * @param lambda ridge regularization term
+	 * @param theta receives the k+1 parameters
+	 * @return false (leaving theta unchanged) if the system is ill-conditioned
+	 */
+	public boolean solve(int[] subset, double lambda, double[] theta) {
+		int n = subset.length + 1;
+		int[] index = new int[n];
+		index[0] = 0;
+		for (int j = 0; j < subset.length; j++) {
+			index[j + 1] = subset[j] + 1;
+		}
+
+		double[] a = new double[n * n];
+		double[] b = new double[n];
+		for (int j = 0; j < n; j++) {
+			int r = index[j] * size;
+			for (int k = 0; k < n; k++) {
+				a[j * n + k] = xtwx[r + index[k]];
+			}
+			b[j] = xtwy[index[j]];
+		}
+		for (int j = 1; j < n; j++) {
+			a[j * n + j] += lambda;
+		}
+		return LinearSolver.choleskySolve(a, b, n, theta);
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * TrainingSet.java
+ * Dense storage for a set of training examples.
+ * Features of all examples are kept in one contiguous row-major matrix
+ * (example i occupies features[i*dim .. i*dim + dim - 1]), and targets,
+ * weights, relative weights and betting cutoffs are kept in parallel
+ * primitive arrays indexed by example. A column-major copy of the features
+ * is built on demand for per-feature scans.
+ *
+ * The boosting loops in AdaBoostRT, AdaBoostR and WeakLearner read the
+ * backing arrays directly instead of walking TrainingExample objects.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TrainingSet {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private int size;				// Number of examples (N)
+	private int dim;				// Number of components of input vectors (d)
+
+	private double[] features;		// Row-major N x d feature matrix
+	private double[] columns;		// Column-major copy of features, or null
+									// if it has not been built (or is stale)
+	private double[] targets;		// Target value y of each example
+	private double[] weights;		// Weight (w) of each example during training
+	private double[] relative_weights;	// (weight) / (sum of all weights)
+
+	/* If this is a test set, store betting cutoff data also: two cutoffs per
+	 * example, example i at betting_cutoffs[2*i] and betting_cutoffs[2*i + 1] */
+	private double[] betting_cutoffs;
+
+	/** Constructor - Create an empty set of examples with dim features */
+	public TrainingSet(int dim, boolean hasBetCutoffs) {
+		this(dim, hasBetCutoffs, INITIAL_CAPACITY);
+	}
+
+	/** Constructor - Create an empty set with room for capacity examples */
+	public TrainingSet(int dim, boolean hasBetCutoffs, int capacity) {
+		this.size = 0;
+		this.dim = dim;
+		capacity = Math.max(capacity, 1);
+		this.features = new double[capacity * dim];
+		this.targets = new double[capacity];
+		this.weights = new double[capacity];
+		this.relative_weights = new double[capacity];
+		if (hasBetCutoffs) {
+			this.betting_cutoffs = new double[capacity * 2];
+		}
+	}
+
+	/** Build a dense set from a list of TrainingExample objects */
+	public static TrainingSet fromExamples(ArrayList<TrainingExample> examples) {
+		int dim = examples.get(0).getInputDim();
+		TrainingSet set = new TrainingSet(dim, false, examples.size());
+		for (TrainingExample example : examples) {
+			set.addExample(example.getInputVector(), example.getTarget());
+			set.weights[set.size - 1] = example.getWeight();
+			set.relative_weights[set.size - 1] = example.getRelativeWeight();
+		}
+		return set;
+	}
+
+	/** Grow the backing arrays so that they hold at least minCapacity rows */
+	private void ensureCapacity(int minCapacity) {
+		int capacity = targets.length;
+		if (minCapacity <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(capacity + (capacity >> 1), minCapacity);
+		features = Arrays.copyOf(features, newCapacity * dim);
+		targets = Arrays.copyOf(targets, newCapacity);
+		weights = Arrays.copyOf(weights, newCapacity);
+		relative_weights = Arrays.copyOf(relative_weights, newCapacity);
+		if (betting_cutoffs != null) {
+			betting_cutoffs = Arrays.copyOf(betting_cutoffs, newCapacity * 2);
+		}
+	}
+
+	/** Append an example with input vector x and target value y */
+	public void addExample(double[] input, double target) {
+		ensureCapacity(size + 1);
+		System.arraycopy(input, 0, features, size * dim, dim);
+		targets[size] = target;
+		size++;
+		columns = null;
+	}
+
+	/** Append a test example, including its betting cutoffs */
+	public void addExample(double[] input, double target,
+			double[] cutoffs) {
+		addExample(input, target);
+		if (betting_cutoffs != null) {
+			betting_cutoffs[2 * (size - 1)] = cutoffs[0];
+			betting_cutoffs[2 * (size - 1) + 1] = cutoffs[1];
+		}
+	}
+
+	/** Append all examples of another set (with the same dimension) */
+	public void addAll(TrainingSet other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.features, 0, features, size * dim,
+				other.size * dim);
+		System.arraycopy(other.targets, 0, targets, size, other.size);
+		System.arraycopy(other.weights, 0, weights, size, other.size);
+		System.arraycopy(other.relative_weights, 0, relative_weights, size,
+				other.size);
+		if (betting_cutoffs != null && other.betting_cutoffs != null) {
+			System.arraycopy(other.betting_cutoffs, 0, betting_cutoffs,
+					2 * size, 2 * other.size);
+		}
+		size += other.size;
+		columns = null;
+	}
+
+	/**
+	 * Append rows examples given column by column: feature j of row i at
+	 * featureColumns[j * rows + i], and, if this set carries them, the two
+	 * betting cutoffs of row i at cutoffColumns[i] and cutoffColumns[rows + i]
+	 */
+	public void addColumns(double[] featureColumns, double[] targetColumn,
+			double[] cutoffColumns, int rows) {
+		ensureCapacity(size + rows);
+		for (int j = 0; j < dim; j++) {
+			int col = j * rows;
+			for (int i = 0; i < rows; i++) {
+				features[(size + i) * dim + j] = featureColumns[col + i];
+			}
+		}
+		System.arraycopy(targetColumn, 0, targets, size, rows);
+		if (betting_cutoffs != null && cutoffColumns != null) {
+			for (int i = 0; i < rows; i++) {
+				betting_cutoffs[2 * (size + i)] = cutoffColumns[i];
+				betting_cutoffs[2 * (size + i) + 1] = cutoffColumns[rows + i];
+			}
+		}
+		size += rows;
+		columns = null;
+	}
+
+	/* Getters */
+	/** Get the number of examples in this set */
+	public int size() {
+		return this.size;
+	}
+
+	/** Get the number of components of each input vector */
+	public int getInputDim() {
+		return this.dim;
+	}
+
+	/** Get one component of the input vector of example i */
+	public double getInputComp(int i, int component) {
+		return features[i * dim + component];
+	}
+
+	/** Get a copy of the input vector of example i */
+	public double[] getInputVector(int i) {
+		return Arrays.copyOfRange(features, i * dim, (i + 1) * dim);
+	}
+
+	/** Get target value of example i */
+	public double getTarget(int i) {
+		return targets[i];
+	}
+
+	/** Get weight of example i */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/** Get relative weight of example i */
+	public double getRelativeWeight(int i) {
+		return relative_weights[i];
+	}
+
+	/** Return true if this set carries betting cutoffs */
+	public boolean hasBetCutoffs() {
+		return betting_cutoffs != null;
+	}
+
+	/** Get the betting cutoff of example i, bet_type = 0 for difference,
+	 *  1 for cumulative */
+	public double getBetCutoff(int i, int bet_type) {
+		if (bet_type == 0) {
+			return betting_cutoffs[2 * i];
+		} else {
+			return betting_cutoffs[2 * i + 1];
+		}
+	}
+
+	/*
+	 * Raw backing arrays for hot loops. Arrays may be longer than size();
+	 * only the first size() rows are valid. Callers that write to the feature
+	 * matrix must call invalidateColumns() afterwards.
+	 */
+
+	/** Row-major feature matrix, example i starts at i * getInputDim() */
+	public double[] getFeatureMatrix() {
+		return features;
+	}
+
+	/** Column-major feature matrix, feature j of example i is at
+	 *  j * size() + i. Built on first use after the features change. */
+	public double[] getColumnMajor() {
+		if (columns == null) {
+			double[] cols = new double[size * dim];
+			for (int i = 0; i < size; i++) {
+				int row = i * dim;
+				for (int j = 0; j < dim; j++) {
+					cols[j * size + i] = features[row + j];
+				}
+			}
+			columns = cols;
+		}
+		return columns;
+	}
+
+	public double[] getTargets() {
+		return targets;
+	}
+
+	public double[] getWeights() {
+		return weights;
+	}
+
+	public double[] getRelativeWeights() {
+		return relative_weights;
+	}
+
+	/* Setters */
+	/** Set weight of example i */
+	public void setWeight(int i, double w) {
+		weights[i] = w;
+	}
+
+	/** Set the relative weight of example i */
+	public void setRelativeWeight(int i, double rw) {
+		relative_weights[i] = rw;
+	}
+
+	public void setTarget(int i, double target) {
+		targets[i] = target;
+	}
+
+	public void setInput(int i, int index, double value) {
+		if (index < dim) {
+			features[i * dim + index] = value;
+			columns = null;
+		}
+	}
+
+	/** Drop the column-major copy after writing to getFeatureMatrix() */
+	public void invalidateColumns() {
+		columns = null;
+	}
+}
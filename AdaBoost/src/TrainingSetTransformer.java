@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 
@@ -32,8 +31,18 @@ public class TrainingSetTransformer {
 	double targetOffset;   // min target value from all samples
 	double targetScale;    // (max - min) target value from all samples
 
-	public TrainingSetTransformer(ArrayList<TrainingExample> training_set) {
-		int inputCount = training_set.get(0).getInputVector().length;
+	/** Constructor - Restore a transformer from saved offsets and scales */
+	TrainingSetTransformer(double[] inputOffset, double[] inputScale,
+			double targetOffset, double targetScale) {
+		this.inputOffset = inputOffset;
+		this.inputScale = inputScale;
+		this.targetOffset = targetOffset;
+		this.targetScale = targetScale;
+	}
+
+	public TrainingSetTransformer(TrainingSet training_set) {
+		int inputCount = training_set.getInputDim();
+		int size = training_set.size();
 		inputOffset = new double[inputCount];
 		inputScale = new double[inputCount];
 		
@@ -45,21 +54,27 @@ public class TrainingSetTransformer {
 			inputOffset[i] = Double.MAX_VALUE;          
 			inputScale[i] = (-1.0) * Double.MAX_VALUE; 
 		}
-		for (TrainingExample s : training_set) {
-			double target = s.getTarget();
+		double[] targets = training_set.getTargets();
+		for (int s = 0; s < size; s++) {
+			double target = targets[s];
 			if (target < targetOffset) {
 				targetOffset = target;
 			}
 			if (target > targetScale) {
 				targetScale = target;
 			}
-			double[] input = s.getInputVector();
-			for (int i = 0; i < inputCount; i++) {
-				if (input[i] < inputOffset[i]) {
-					inputOffset[i] = input[i];
+		}
+		// Scan one feature column at a time
+		double[] columns = training_set.getColumnMajor();
+		for (int i = 0; i < inputCount; i++) {
+			int col = i * size;
+			for (int s = 0; s < size; s++) {
+				double value = columns[col + s];
+				if (value < inputOffset[i]) {
+					inputOffset[i] = value;
 				}
-				if (input[i] > inputScale[i]) {
-					inputScale[i] = input[i];
+				if (value > inputScale[i]) {
+					inputScale[i] = value;
 				}
 			}
 		}
@@ -81,20 +96,36 @@ public class TrainingSetTransformer {
 	 * 
 	 * training_set is the list of samples to be transformed
 	 */
-	public void transform(ArrayList<TrainingExample> training_set) {
-		for (TrainingExample s : training_set) {
-			double target = s.getTarget() - targetOffset;
+	public void transform(TrainingSet training_set) {
+		int dim = training_set.getInputDim();
+		double[] targets = training_set.getTargets();
+		double[] features = training_set.getFeatureMatrix();
+		for (int s = 0; s < training_set.size(); s++) {
+			double target = targets[s] - targetOffset;
 			if (targetScale > 0) target /= targetScale;
-			s.setTarget(target);
-			double[] sInput = s.getInputVector();
-			for (int i = 0; i < sInput.length; i++) {
-				double value = sInput[i] - inputOffset[i];
+			targets[s] = target;
+			int row = s * dim;
+			for (int i = 0; i < dim; i++) {
+				double value = features[row + i] - inputOffset[i];
 				if (inputScale[i] > 0) value /= inputScale[i];
-				s.setInput(i, value);
+				features[row + i] = value;
 			}
 		}
+		training_set.invalidateColumns();
 	}
 	
+	/**
+	 * Normalize one raw input vector the same way transform does, writing
+	 * the result into normalized
+	 */
+	public void normalizeInput(double[] input, double[] normalized) {
+		for (int i = 0; i < inputOffset.length; i++) {
+			double value = input[i] - inputOffset[i];
+			if (inputScale[i] > 0) value /= inputScale[i];
+			normalized[i] = value;
+		}
+	}
+
 	/**
 	 * Convert a normalized target value to the real value 
 	 */
@@ -135,22 +166,25 @@ public class TrainingSetTransformer {
 	 * @param training_set samples for estimating correlations
 	 * @return list of coefficients sorted in descending order
 	 */
-	public static Correlation[] estimateCorrelations(ArrayList<TrainingExample> training_set) {
+	public static Correlation[] estimateCorrelations(TrainingSet training_set) {
 
 		// Collect statistics for input-to-target coefficient
-		int featureCount = training_set.get(0).getInputVector().length;
+		int featureCount = training_set.getInputDim();
+		double[] features = training_set.getFeatureMatrix();
 		double[] xmean = new double[featureCount];
 		double[] x2mean = new double[featureCount];
 		double[] xymean = new double[featureCount];
 		double ymean = 0;
-		for (TrainingExample s : training_set) {
-			double weight = s.getRelativeWeight();
-			ymean += s.getTarget() * weight;
-			double[] input = s.getInputVector();
+		for (int s = 0; s < training_set.size(); s++) {
+			double weight = training_set.getRelativeWeight(s);
+			double target = training_set.getTarget(s);
+			ymean += target * weight;
+			int row = s * featureCount;
 			for (int i = 0; i < featureCount; i++) {
-				xmean[i] += input[i] * weight;
-				x2mean[i] += input[i]*input[i] * weight;
-				xymean[i] += input[i]*s.getTarget() * weight;
+				double input = features[row + i];
+				xmean[i] += input * weight;
+				x2mean[i] += input*input * weight;
+				xymean[i] += input*target * weight;
 			}
 		}
 
@@ -10,7 +10,7 @@
  */
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class WeakLearner {
 	private final static int SUBSET_SIZE = 5;   // Size of random subset of features
@@ -21,8 +21,15 @@ public class WeakLearner {
 
 	private final static boolean USE_QUAD_BASIS = false;
 
+	/* If USE_NORMAL_EQUATIONS is true, fit theta in closed form by solving the
+	 * weighted normal equations (X'WX + LAMBDA*I) theta = X'Wy with Cholesky,
+	 * falling back to gradient descent only if the system is ill-conditioned.
+	 * If false, always use gradient descent. */
+	private final static boolean USE_NORMAL_EQUATIONS = true;
+
 	private double alpha;
-	private ArrayList<TrainingExample> training_set;
+	private TrainingSet training_set;
+	private int N;		// Number of training examples
 
 	/* Theta is the parameter vector used by this learner after training to 
 	 * make predictions. Theta has the same number of dimensions as the
@@ -30,7 +37,34 @@ public class WeakLearner {
 	private double[] theta;
 
 	/* The indices of the features upon which this weak learner is trained */
-	private Integer[] subset; 
+	private int[] subset; 
+
+	/* Basis vectors of all training examples, built the first time training
+	 * needs them. Row-major N x basisSize, example i starts at i * basisSize.
+	 * A linear learner solved from SufficientStatistics never builds it. */
+	private double[] basis;
+	private int basisSize;
+
+	/* Weighted statistics of the training set under the current distribution,
+	 * shared by all learners trained in the same boosting round, or null */
+	private SufficientStatistics stats;
+
+	/* Random stream used to choose the feature subset. Learners trained
+	 * concurrently each get their own seeded stream so results are
+	 * reproducible; otherwise the stream is seeded arbitrarily. */
+	private SplittableRandom rand;
+
+	/* Predictions of the trained learner on every training example, with
+	 * the squared error (f(x) - y)^2 and relative error |f(x) - y| / |y| of
+	 * each, computed once at the end of train(). Boosters read these instead
+	 * of re-evaluating the hypothesis on the training set. */
+	private double[] predictions;
+	private double[] squaredErrors;
+	private double[] relativeErrors;
+
+	/* Scratch vectors reused by every gradient descent step */
+	private double[] gradient;
+	private double[] trialTheta;
 
 	/* The combination coefficient (c) is a value chosen between 0 and 1 that
 	 * takes into account the accuracy of this learner's hypothesis with
@@ -48,15 +82,35 @@ public class WeakLearner {
 	}
 
 	/** Constructor - Create a WeakLearner by training it on training set */
-	public WeakLearner(ArrayList<TrainingExample> training_set) {
+	public WeakLearner(TrainingSet training_set) {
+		this(training_set, null);
+	}
+
+	/**
+	 * Constructor - Create a WeakLearner that fits its theta from weighted
+	 * statistics precomputed for the current distribution of training_set.
+	 */
+	public WeakLearner(TrainingSet training_set, SufficientStatistics stats) {
+		this(training_set, stats, new SplittableRandom());
+	}
+
+	/**
+	 * Constructor - Create a WeakLearner whose feature subset is drawn from
+	 * the given random stream. stats may be null.
+	 */
+	public WeakLearner(TrainingSet training_set, SufficientStatistics stats,
+			SplittableRandom rand) {
 		this.training_set = training_set;
+		this.N = training_set.size();
+		this.stats = stats;
+		this.rand = rand;
 
 		/* 
 		 * Take the training set given to the weak learner when it was created.
 		 * Get a random subset of the feature dimensions of that training data,
  		 * and store them in variable subset.
 		 */
-		selectSubset(training_set.get(0).getInputVector().length);
+		selectSubset(training_set.getInputDim());
 	}
 
 	/**
@@ -69,7 +123,7 @@ public class WeakLearner {
 	private void selectSubset(int rawFeatureCount) {
 		if (SUBSET_SIZE >= rawFeatureCount) {
 			// select all features
-			subset = new Integer[rawFeatureCount];
+			subset = new int[rawFeatureCount];
 			for (int i= 0; i < rawFeatureCount; i++) {
 				subset[i] = i;
  			}
@@ -77,20 +131,41 @@ public class WeakLearner {
 		else {
 			// select randomly from the raw input up to selectedSize
 			ArrayList<Integer> randomList = getRandomSubset(rawFeatureCount, SUBSET_SIZE);
-			subset = new Integer[randomList.size()];
-			randomList.toArray(subset);
+			subset = new int[randomList.size()];
+			for (int i = 0; i < subset.length; i++) {
+				subset[i] = randomList.get(i);
+			}
 		}
 
-		// Use the first training sample to count the basis vector, which should
-		// be the same length as theta
-		double[] features = selectFeatures(training_set.get(0).getInputVector());
-		Double[] basis = getBasisVector(features);
+		// The basis vector has a bias term, the linear terms and (optionally)
+		// the quadratic terms, and should be the same length as theta
+		basisSize = getBasisSize(subset.length);
 
 		// guess initial theta values for linear terms 
-		theta = new double[basis.length];
+		theta = new double[basisSize];
+		gradient = new double[basisSize];
+		trialTheta = new double[basisSize];
+	}
 
-		for (int i = 0; i < basis.length; i++) {
-			theta[i] = 0;
+	/** Number of terms in the basis vector of k selected features */
+	private static int getBasisSize(int k) {
+		int size = 1 + k;	// bias and linear terms
+		if (USE_QUAD_BASIS) {
+			size += k * (k + 1) / 2;
+		}
+		return size;
+	}
+
+	/** Build the basis vector of every training example, if not built yet */
+	private void buildBasisMatrix() {
+		if (basis != null) {
+			return;
+		}
+		basis = new double[N * basisSize];
+		double[] matrix = training_set.getFeatureMatrix();
+		int dim = training_set.getInputDim();
+		for (int i = 0; i < N; i++) {
+			fillBasisVector(matrix, i * dim, basis, i * basisSize);
 		}
 	}
 
@@ -109,7 +184,6 @@ public class WeakLearner {
 		}
 
 		/* Randomly choose indices from possibilities */
-		Random rand = new Random();
 		ArrayList<Integer> random_subset = new ArrayList<Integer>();
 		while (random_subset.size() < subsetSize && possibilities.size() > 0) {
 			int selected = rand.nextInt(possibilities.size());
@@ -119,7 +193,7 @@ public class WeakLearner {
 	}
 
 	/** Get the subset of feature dimensions selected */
-	public Integer[] getSubset() {
+	public int[] getSubset() {
 		return this.subset;
 	}
 
@@ -128,6 +202,26 @@ public class WeakLearner {
 		return this.theta;
 	}
 
+	/** True if theta weighs only the bias and linear terms of the subset */
+	public boolean isLinear() {
+		return theta.length == subset.length + 1;
+	}
+
+	/** Predictions on the training set, null until train() has run */
+	public double[] getPredictions() {
+		return this.predictions;
+	}
+
+	/** Squared errors on the training set, null until train() has run */
+	public double[] getSquaredErrors() {
+		return this.squaredErrors;
+	}
+
+	/** Relative errors on the training set, null until train() has run */
+	public double[] getRelativeErrors() {
+		return this.relativeErrors;
+	}
+
 	/* Training process for the weak learner:
 	 * 1. Choose random subset of features St such that |St| = some constant k.
 	 * 2. For each example x(i), build a quadratic basis vector phi using St.
@@ -136,73 +230,177 @@ public class WeakLearner {
 	public void train() {
 		/*
 		 * Now we have the quadratic representation of all inputs. Use them to
-		 * generate a quadratic parameter vector theta by gradient descent, 
-		 * which will define this weak learner.
+		 * generate a quadratic parameter vector theta, in closed form if
+		 * possible and by gradient descent otherwise, which will define this
+		 * weak learner.
 		 */
+		fitTheta();
+		cachePredictions();
+		// Training-set predictions now come from the cache.
+		basis = null;
+	}
+
+	/** Fit theta, in closed form if possible and by gradient descent otherwise */
+	private void fitTheta() {
+		if (USE_NORMAL_EQUATIONS) {
+			// The shared statistics only cover the linear basis.
+			if (stats != null && !USE_QUAD_BASIS) {
+				if (stats.solve(subset, LAMBDA, theta)) {
+					return;
+				}
+			} else if (solveNormalEquations()) {
+				return;
+			}
+		}
+		buildBasisMatrix();
 		alpha = ALPHA;
 		batchGradientDescent();
 	}
 
+	/** Evaluate the trained hypothesis once on every training example */
+	private void cachePredictions() {
+		predictions = new double[N];
+		squaredErrors = new double[N];
+		relativeErrors = new double[N];
+		double[] matrix = training_set.getFeatureMatrix();
+		double[] targets = training_set.getTargets();
+		int dim = training_set.getInputDim();
+		for (int i = 0; i < N; i++) {
+			double prediction = (basis != null) ? getPrediction(i, theta)
+					: predictRaw(matrix, i * dim, theta);
+			double diff = prediction - targets[i];
+			predictions[i] = prediction;
+			squaredErrors[i] = diff * diff;
+			relativeErrors[i] = Math.abs(diff) / Math.abs(targets[i]);
+		}
+	}
+
+	/**
+	 * Fit theta by weighted regularized least squares in closed form.
+	 * The normal equations (X'WX + LAMBDA*I) theta = X'Wy, where W holds the
+	 * relative weights and the bias term is not regularized, are accumulated
+	 * in one pass over the basis matrix and solved by Cholesky decomposition.
+	 * 
+	 * @return false (leaving theta unchanged) if the system is ill-conditioned
+	 */
+	private boolean solveNormalEquations() {
+		buildBasisMatrix();
+		double[] xtwx = new double[basisSize * basisSize];
+		double[] xtwy = new double[basisSize];
+		double[] targets = training_set.getTargets();
+		double[] weights = training_set.getRelativeWeights();
+		for (int i = 0; i < N; i++) {
+			double w = weights[i];
+			double wy = w * targets[i];
+			int row = i * basisSize;
+			for (int j = 0; j < basisSize; j++) {
+				double wx = w * basis[row + j];
+				xtwy[j] += wy * basis[row + j];
+				// lower triangle only; the solver does not read the rest
+				for (int k = 0; k <= j; k++) {
+					xtwx[j * basisSize + k] += wx * basis[row + k];
+				}
+			}
+		}
+		for (int j = 1; j < basisSize; j++) {
+			xtwx[j * basisSize + j] += LAMBDA;
+		}
+		return LinearSolver.choleskySolve(xtwx, xtwy, basisSize, theta);
+	}
+
 	/**
 	 * Get prediction based on raw input vector
 	 * @param rawInput
 	 * @return
 	 */
 	public double getHypothesis(double[] rawInput) {
-		// Convert raw input to the basis vector
-		double[] features = selectFeatures(rawInput);
-		Double[] basis = getBasisVector(features);
-
 		// Get prediction from basis and theta dot product
-		return getPrediction(basis);
+		return predictRaw(rawInput, 0, theta);
 	}
 
 	/**
-	 * Select subset feature values from raw input features.
-	 * 
-	 * @param rawInput array of all raw feature data
-	 * @return
+	 * Get prediction for example i of a training set. Examples of this
+	 * learner's own training set are read from the prediction cache once
+	 * trained; otherwise the raw input is read in place.
 	 */
-	private double[] selectFeatures(double[] rawInput) {
-		double[] features = new double[subset.length];
-		for (int i = 0; i < subset.length; i++) {
-			features[i] = rawInput[subset[i]];
+	public double getHypothesis(TrainingSet set, int i) {
+		if (set == training_set && predictions != null) {
+			return predictions[i];
 		}
-		return features;
+		return predictRaw(set.getFeatureMatrix(), i * set.getInputDim(), theta);
 	}
 
 	/**
-	 * Generate basis vector from a subset of feature values from a training sample.
-	 * Includes bias term.
+	 * Generate basis vector from the selected subset of a sample's raw
+	 * features and write it to out. Includes bias term.
 	 * 
-	 * @param input list of selected feature values from a sample
-	 * @return coefficient vector for theta iteration in regression
+	 * @param rawInput array of all raw feature data
+	 * @param offset index of the first raw feature of the example in rawInput
+	 * @param out destination of the basis vector
+	 * @param outOffset index in out of the first basis term
 	 */
-	private Double[] getBasisVector(double[] input) {
-		ArrayList<Double> terms = new ArrayList<Double>();
-		terms.add(1.0);		// bias term
+	private void fillBasisVector(double[] rawInput, int offset, double[] out,
+			int outOffset) {
+		int k = subset.length;
+		int b = outOffset;
+		out[b++] = 1.0;		// bias term
 
 		// Add all linear terms.
-		for (int i = 0; i < input.length; i++) {
-			terms.add(input[i]);
+		for (int i = 0; i < k; i++) {
+			out[b++] = rawInput[offset + subset[i]];
 		}
 
 		if (USE_QUAD_BASIS) {
 			// Add all quadratic terms.
-			for (int i = 0; i < input.length; i++) {
-				for (int j = i; j < input.length; j++) {
-					terms.add(input[i]*input[j]);
+			for (int i = 0; i < k; i++) {
+				double xi = rawInput[offset + subset[i]];
+				for (int j = i; j < k; j++) {
+					out[b++] = xi * rawInput[offset + subset[j]];
 				}
 			}
 		}
-		Double[] array = new Double[terms.size()];
-		return terms.toArray(array);
 	}
 
-	private double getPrediction(Double[] basisVector) {
+	/**
+	 * Dot product of coef with the basis vector of a raw input, computed
+	 * term by term without materializing the basis vector.
+	 */
+	private double predictRaw(double[] rawInput, int offset, double[] coef) {
+		return predictRaw(subset, coef, rawInput, offset);
+	}
+
+	/**
+	 * Dot product of coef with the basis vector, over the raw features in
+	 * subset, of the raw input starting at rawInput[offset]. The basis has
+	 * quadratic terms if coef is longer than the bias and linear terms, as
+	 * it is when USE_QUAD_BASIS is set. Also used to evaluate learners read
+	 * back from a ModelFile in the same order as the learner itself.
+	 */
+	static double predictRaw(int[] subset, double[] coef, double[] rawInput,
+			int offset) {
+		int k = subset.length;
+		double prediction = coef[0];	// bias term
+		for (int i = 0; i < k; i++) {
+			prediction += coef[1 + i] * rawInput[offset + subset[i]];
+		}
+		if (coef.length > 1 + k) {
+			int b = 1 + k;
+			for (int i = 0; i < k; i++) {
+				double xi = rawInput[offset + subset[i]];
+				for (int j = i; j < k; j++) {
+					prediction += coef[b++] * xi * rawInput[offset + subset[j]];
+				}
+			}
+		}
+		return prediction;
+	}
+
+	/** Dot product of coef with the basis vector of training example i */
+	private double getPrediction(int i, double[] coef) {
+		int row = i * basisSize;
 		double prediction = 0;
-		for (int i = 0; i < basisVector.length; i++) {
-			prediction += basisVector[i] * theta[i];
+		for (int j = 0; j < basisSize; j++) {
+			prediction += basis[row + j] * coef[j];
 		}
 		return prediction;
 	}
@@ -223,47 +421,51 @@ public class WeakLearner {
 	 * @return
 	 */
 	private double calcError(double[] gradient) {
-		double error = 0.0;
-		for (TrainingExample sample : training_set) {
-			double target = sample.getTarget();
-			double[] features = selectFeatures(sample.getInputVector());
-			Double[] basis = getBasisVector(features);
-			double prediction = 0;
-			for (int j = 0; j < basis.length; j++) {
-				double currTheta = theta[j];
-				if (gradient != null) {
-					currTheta -= alpha * gradient[j];
-				}
-				prediction += basis[j] * currTheta;
+		double[] currTheta = theta;
+		if (gradient != null) {
+			for (int j = 0; j < basisSize; j++) {
+				trialTheta[j] = theta[j] - alpha * gradient[j];
 			}
-			double diff = prediction - target;
-			double weight = sample.getRelativeWeight();
-			error += 0.5 * diff * diff * weight;
+			currTheta = trialTheta;
+		}
+
+		double error = 0.0;
+		double[] targets = training_set.getTargets();
+		double[] weights = training_set.getRelativeWeights();
+		for (int i = 0; i < N; i++) {
+			double diff = getPrediction(i, currTheta) - targets[i];
+			error += 0.5 * diff * diff * weights[i];
 		}
 		return error;
 	}
 
+	/**
+	 * Fill the gradient vector at the current theta, normalized to unit
+	 * length. One pass over the basis matrix: the residual of each example
+	 * is computed once and spread over all theta components.
+	 */
 	private double[] calcGradient() {
 		// gradient holds delta for calculating theta changes in a gradient descent iteration.
-		double[] gradient = new double[theta.length];
-
-		for (int j = 0; j < theta.length; j++) { // for each theta
-			// Add up the contribution of each example to theta_j.
-			for (int i = 0; i < training_set.size(); i++) { 
-				double[] features = selectFeatures(training_set.get(i).getInputVector());
-				double target = training_set.get(i).getTarget();
-				Double[] basis = getBasisVector(features);
-
-				// weight reflects the importance of this sample at the current stage in AdaBoost
-				double weight = training_set.get(i).getRelativeWeight();
-				gradient[j] += (getPrediction(basis) - target) * basis[j] * weight;
-			}
-			// Regularize all terms but the bias to prevent overfitting with large theta.
-			if (j != 0) {
-				gradient[j] += LAMBDA * theta[j];
+		for (int j = 0; j < basisSize; j++) {
+			gradient[j] = 0;
+		}
+
+		double[] targets = training_set.getTargets();
+		double[] weights = training_set.getRelativeWeights();
+		for (int i = 0; i < N; i++) {
+			// weight reflects the importance of this sample at the current stage in AdaBoost
+			double residual = (getPrediction(i, theta) - targets[i]) * weights[i];
+			int row = i * basisSize;
+			for (int j = 0; j < basisSize; j++) {
+				gradient[j] += residual * basis[row + j];
 			}
 		}
 
+		// Regularize all terms but the bias to prevent overfitting with large theta.
+		for (int j = 1; j < basisSize; j++) {
+			gradient[j] += LAMBDA * theta[j];
+		}
+
 		// normalize gradient vector
 		double g = 0;
 		for (int i = 0; i < gradient.length; i++) {
@@ -310,9 +512,8 @@ public class WeakLearner {
 					thetaNotChanged = 0;
 				}
 				error = newError;
-				gradient = calcGradient();
+				calcGradient();
 				alpha *= 1.2;
-				printTheta();
 			}
 			else {
 				alpha *= 0.5;
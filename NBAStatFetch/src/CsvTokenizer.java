@@ -0,0 +1,354 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * CsvTokenizer.java
+ * Streaming byte-level tokenizer for the comma-separated files of the
+ * project (RAW game logs and SEASON feature files).
+ *
+ * The file is read through a channel into one reusable ByteBuffer. For each
+ * row the tokenizer only records where each field starts and ends in the
+ * buffer, then calls the handler, which reads the fields it needs with
+ * getInt, getLong, getDouble or getDate directly from the bytes. No String
+ * is created per field unless the handler asks for one with getString.
+ *
+ * Rows end with \n, \r\n or a lone \r (the 2012 test file uses CR only).
+ * A field the handler cannot read throws FormatException with the line
+ * number and byte offset of the row; the row is then skipped and reported
+ * to the handler's malformed method, and parsing goes on with the next row.
+ */
+
+public class CsvTokenizer {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/* Powers of ten that are exact doubles, for the fast decimal path */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	/** Receives the rows of a file */
+	public interface Handler {
+		/** Called for every non-empty row; read its fields from row */
+		void row(CsvTokenizer row) throws FormatException;
+
+		/** Called for a row whose handling threw FormatException */
+		void malformed(FormatException e);
+	}
+
+	/** A field that cannot be read as the requested type */
+	public static class FormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final long line;
+		private final long offset;
+
+		public FormatException(String message, long line, long offset) {
+			super("line " + line + " (byte " + offset + "): " + message);
+			this.line = line;
+			this.offset = offset;
+		}
+
+		/** Line number of the row, counting from 1 */
+		public long getLine() {
+			return line;
+		}
+
+		/** Byte offset of the start of the row in the file */
+		public long getOffset() {
+			return offset;
+		}
+	}
+
+	private final byte delimiter;
+	private ByteBuffer buffer;
+	private byte[] bytes;			// backing array of buffer
+
+	/* Fields of the current row: field f is bytes[starts[f] .. ends[f]) */
+	private int[] starts = new int[64];
+	private int[] ends = new int[64];
+	private int fieldCount;
+	private long line;				// line number of the current row
+	private long rowOffset;			// byte offset of the current row
+
+	/** Constructor - Tokenizer for fields separated by delimiter */
+	public CsvTokenizer(char delimiter) {
+		this.delimiter = (byte) delimiter;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.bytes = buffer.array();
+	}
+
+	/** Tokenize a file, calling handler for every row */
+	public void parse(String path, Handler handler) throws IOException {
+		FileInputStream in = new FileInputStream(path);
+		try {
+			parse(in.getChannel(), handler);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Tokenize everything readable from channel, calling handler per row */
+	public void parse(ReadableByteChannel channel, Handler handler)
+			throws IOException {
+		buffer.clear();
+		line = 0;
+		long consumed = 0;			// file offset of bytes[0]
+		boolean lastWasCR = false;	// previous row ended with \r
+		boolean eof = false;
+		int pos = 0;				// start of the unprocessed bytes
+
+		while (!eof) {
+			// Keep the unprocessed tail, growing the buffer for long rows
+			int tail = buffer.position() - pos;
+			if (pos > 0) {
+				System.arraycopy(bytes, pos, bytes, 0, tail);
+				consumed += pos;
+				pos = 0;
+				buffer.position(tail);
+			} else if (tail == bytes.length) {
+				ByteBuffer larger = ByteBuffer.allocate(bytes.length * 2);
+				larger.put(bytes, 0, tail);
+				buffer = larger;
+				bytes = buffer.array();
+			}
+			eof = (channel.read(buffer) < 0);
+			int limit = buffer.position();
+
+			int start = pos;
+			int i = pos;
+			while (true) {
+				// Find the end of the row starting at start
+				while (i < limit && bytes[i] != '\n' && bytes[i] != '\r') {
+					i++;
+				}
+				if (i == limit && !eof) {
+					break;		// incomplete row; read more
+				}
+				if (i == limit && start == limit) {
+					break;		// end of file
+				}
+				if (lastWasCR && start == i && i < limit && bytes[i] == '\n') {
+					// second half of \r\n
+					lastWasCR = false;
+					start = ++i;
+					continue;
+				}
+				line++;
+				rowOffset = consumed + start;
+				if (i > start) {
+					split(start, i);
+					try {
+						handler.row(this);
+					} catch (FormatException e) {
+						handler.malformed(e);
+					}
+				}
+				lastWasCR = (i < limit && bytes[i] == '\r');
+				if (i == limit) {
+					start = i;
+					break;
+				}
+				start = ++i;
+			}
+			pos = start;
+			if (eof) {
+				break;
+			}
+		}
+	}
+
+	/** Record the fields of the row in bytes[start .. end) */
+	private void split(int start, int end) {
+		fieldCount = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || bytes[i] == delimiter) {
+				if (fieldCount == starts.length) {
+					int[] s = new int[starts.length * 2];
+					int[] e = new int[ends.length * 2];
+					System.arraycopy(starts, 0, s, 0, fieldCount);
+					System.arraycopy(ends, 0, e, 0, fieldCount);
+					starts = s;
+					ends = e;
+				}
+				starts[fieldCount] = fieldStart;
+				ends[fieldCount] = i;
+				fieldCount++;
+				fieldStart = i + 1;
+			}
+		}
+	}
+
+	/* Accessors for the current row */
+
+	/** Number of fields in the current row */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/** Line number of the current row, counting from 1 */
+	public long getLine() {
+		return line;
+	}
+
+	/** Byte offset of the current row in the file */
+	public long getOffset() {
+		return rowOffset;
+	}
+
+	/** True if the field is missing or empty */
+	public boolean isEmpty(int field) {
+		return field >= fieldCount || starts[field] == ends[field];
+	}
+
+	/** The field as a String (allocates; for names and headers) */
+	public String getString(int field) throws FormatException {
+		checkField(field);
+		return new String(bytes, starts[field], ends[field] - starts[field],
+				ASCII);
+	}
+
+	/** The field as a long; leading zeros (e.g. GameId 0020900003) are
+	 *  accepted, so use getString to keep them */
+	public long getLong(int field) throws FormatException {
+		checkField(field);
+		int i = starts[field];
+		int end = ends[field];
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = (bytes[i] == '-');
+			i++;
+		}
+		if (i == end || end - i > 18) {
+			throw error(field, "not an integer");
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw error(field, "not an integer");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/** The field as an int */
+	public int getInt(int field) throws FormatException {
+		long value = getLong(field);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw error(field, "out of int range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * The field as a double. Plain decimals of up to 18 significant digits
+	 * (all the values in our files) are converted directly from the bytes,
+	 * exactly rounded; anything else goes through Double.parseDouble.
+	 */
+	public double getDouble(int field) throws FormatException {
+		checkField(field);
+		int i = starts[field];
+		int end = ends[field];
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = (bytes[i] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;			// digits after the decimal point
+		boolean point = false;
+		boolean sawDigit = false;
+		boolean plain = (i < end);
+		for (; i < end; i++) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				sawDigit = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa > 0) digits++;
+					if (point) scale++;
+				} else {
+					plain = false;
+					break;
+				}
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				plain = false;
+				break;
+			}
+		}
+		// Exact when the mantissa and the power of ten are exact doubles
+		if (plain && sawDigit && mantissa < (1L << 53) && scale < POW10.length) {
+			double value = mantissa / POW10[scale];
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(getString(field).trim());
+		} catch (NumberFormatException e) {
+			throw error(field, "not a number");
+		}
+	}
+
+	/** Fill values[j] with getDouble(fields[j]) for every j */
+	public void getDoubles(int[] fields, double[] values)
+			throws FormatException {
+		for (int j = 0; j < fields.length; j++) {
+			values[j] = getDouble(fields[j]);
+		}
+	}
+
+	/** A yyyy-MM-dd field (e.g. 2007-10-30) as the int yyyyMMdd */
+	public int getDate(int field) throws FormatException {
+		checkField(field);
+		int i = starts[field];
+		if (ends[field] - i != 10 || bytes[i + 4] != '-' || bytes[i + 7] != '-') {
+			throw error(field, "not a yyyy-MM-dd date");
+		}
+		int year = 0;
+		int month = 0;
+		int day = 0;
+		for (int k = 0; k < 10; k++) {
+			if (k == 4 || k == 7) continue;
+			int digit = bytes[i + k] - '0';
+			if (digit < 0 || digit > 9) {
+				throw error(field, "not a yyyy-MM-dd date");
+			}
+			if (k < 4) {
+				year = year * 10 + digit;
+			} else if (k < 7) {
+				month = month * 10 + digit;
+			} else {
+				day = day * 10 + digit;
+			}
+		}
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			throw error(field, "not a yyyy-MM-dd date");
+		}
+		return year * 10000 + month * 100 + day;
+	}
+
+	private void checkField(int field) throws FormatException {
+		if (field >= fieldCount) {
+			throw new FormatException("missing field " + field + " of " +
+					fieldCount, line, rowOffset);
+		}
+	}
+
+	private FormatException error(int field, String problem) {
+		String value = new String(bytes, starts[field],
+				ends[field] - starts[field], ASCII);
+		return new FormatException("field " + field + " '" + value + "' is " +
+				problem, line, rowOffset);
+	}
+}
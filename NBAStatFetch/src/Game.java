@@ -27,6 +27,14 @@ public class Game {
 		this.seasonRoadOppAvg = seasonRoadOppAvg;
 	}
 
+	public void setForm(boolean isHome, double[] form) {
+		if (isHome) {
+			this.homeForm = form;
+		} else {
+			this.roadForm = form;
+		}
+	}
+
 	String gameId;
 	Date gameDate;
 	String homeTeamId;
@@ -37,6 +45,8 @@ public class Game {
 	GameStatistics roadStats;
 	GameStatistics seasonRoadAvg;
 	GameStatistics seasonRoadOppAvg;
+	double[] homeForm;	// TeamForm features of the home team before this game
+	double[] roadForm;	// TeamForm features of the road team before this game
 
 	/** Constructor for NBADataParser */
 	public Game(String gameId, HashMap<String, Integer> columns, String[] row) {
@@ -66,6 +76,23 @@ public class Game {
 		}
 	}
 
+	/** Constructor for game logs decoded by ResultSetReader */
+	public Game(String gameId, Date gameDate) {
+		this.gameId = gameId;
+		this.gameDate = gameDate;
+	}
+
+	/** Set the ID and statistics of the home or road team */
+	public void setTeam(boolean isHome, String teamId, GameStatistics stats) {
+		if (isHome) {
+			homeTeamId = teamId;
+			homeStats = stats;
+		} else {
+			roadTeamId = teamId;
+			roadStats = stats;
+		}
+	}
+
 	/** Constructor for NBAStatCalculator */
 	public Game(Date gameDate) {
 		this.gameDate = gameDate;
@@ -82,6 +109,58 @@ public class Game {
 		}
 	}
 	
+	/** Set the home or road team's statistics (e.g. a row of a StatBlock) */
+	public void setStats(GameStatistics stats, boolean isHome) {
+		if (isHome) {
+			homeStats = stats;
+		} else {
+			roadStats = stats;
+		}
+	}
+	
+	/** True if the statistics of both teams have been collected */
+	public boolean hasBothTeams() {
+		return homeStats != null && roadStats != null;
+	}
+
+	/**
+	 * True if both teams have season averages for this game and, if
+	 * withForm, form features as well; only such games are written out.
+	 */
+	public boolean hasFeatures(boolean withForm) {
+		return seasonHomeAvg != null && seasonRoadAvg != null
+				&& (!withForm || (homeForm != null && roadForm != null));
+	}
+
+	/**
+	 * Copy the features of the game, as written by NBAStatCalculator, into
+	 * out: the major statistics of the home team, its opponents, the road
+	 * team and its opponents, then, if withForm, the home and road team
+	 * form features.
+	 */
+	public void getFeatures(double[] out, boolean withForm) {
+		int m = GameStatistics.MAJOR_STATS;
+		seasonHomeAvg.getMajorStats(out, 0, 1);
+		seasonHomeOppAvg.getMajorStats(out, m, 1);
+		seasonRoadAvg.getMajorStats(out, 2 * m, 1);
+		seasonRoadOppAvg.getMajorStats(out, 3 * m, 1);
+		if (withForm) {
+			System.arraycopy(homeForm, 0, out, 4 * m, homeForm.length);
+			System.arraycopy(roadForm, 0, out, 4 * m + homeForm.length,
+					roadForm.length);
+		}
+	}
+
+	/** Home score minus road score (Against the Spread target) */
+	public int getSpread() {
+		return homeStats.getTotalScore() - roadStats.getTotalScore();
+	}
+
+	/** Sum of the two scores (Over/Under target) */
+	public int getTotal() {
+		return homeStats.getTotalScore() + roadStats.getTotalScore();
+	}
+
 	public String getHomeTeam() {
 		return homeStats.name;
 	}
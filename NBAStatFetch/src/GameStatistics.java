@@ -7,131 +7,108 @@ import java.util.HashMap;
  */
 
 public class GameStatistics {
-	int FGM;  	// field goals made
-	int FGA;  	// field goals attempted
-	int FG3M; 	// 3-point field goals made
-	int FG3A; 	// 3-point field goals attempted
-	int FTM;  	// free throws made
-	int FTA;  	// free throws attempted
-	int OREB; 	// offensive rebounds
-	int DREB; 	// defensive rebounds
-	int AST;  	// assists
-	int STL;  	// steals
-	int BLK;  	// blocks
-	int TOV;  	// turn-overs
-	int PF;   	// personal fouls
-	int PTS;  	// total score
+	/* Position of each statistic in a row of STATS ints */
+	static final int FGM = 0;  	// field goals made
+	static final int FGA = 1;  	// field goals attempted
+	static final int FG3M = 2; 	// 3-point field goals made
+	static final int FG3A = 3; 	// 3-point field goals attempted
+	static final int FTM = 4;  	// free throws made
+	static final int FTA = 5;  	// free throws attempted
+	static final int OREB = 6; 	// offensive rebounds
+	static final int DREB = 7; 	// defensive rebounds
+	static final int AST = 8;  	// assists
+	static final int STL = 9;  	// steals
+	static final int BLK = 10; 	// blocks
+	static final int TOV = 11; 	// turn-overs
+	static final int PF = 12;  	// personal fouls
+	static final int PTS = 13; 	// total score
+	public static final int STATS = 14;
+
+	/* Column labels of the statistics in the game files, in row order */
+	static final String[] LABELS = {"FGM", "FGA", "FG3M", "FG3A", "FTM",
+			"FTA", "OREB", "DREB", "AST", "STL", "BLK", "TOV", "PF", "PTS"};
+
+	/* Number of statistics in getMajorTeamStats and getMajorStats */
+	public static final int MAJOR_STATS = 9;
+
+	/* The statistics are data[offset .. offset + STATS), a row of a
+	 * StatBlock or an array of their own */
+	final int[] data;
+	final int offset;
 	String name;// team name
 
 	/** Constructors */
 	
 	public GameStatistics() {
-		FGM = 0;
-		FGA = 0;
-		FG3M = 0;
-		FG3A = 0;
-		FTM = 0;
-		FTA = 0;
-		OREB = 0;
-		DREB = 0;
-		AST = 0;
-		STL = 0;
-		BLK = 0;
-		TOV = 0;
-		PF = 0;
-		PTS = 0;
+		this(new int[STATS], 0, null);
 	}
 
-	public GameStatistics(HashMap<String, Integer> columns, String[] row, String name) {
+	/** View of the row at offset in data */
+	GameStatistics(int[] data, int offset, String name) {
+		this.data = data;
+		this.offset = offset;
 		this.name = name;
-		FGM = Integer.parseInt(row[columns.get("FGM")]);
-		FGA = Integer.parseInt(row[columns.get("FGA")]);
-		FG3M = Integer.parseInt(row[columns.get("FG3M")]);
-		FG3A = Integer.parseInt(row[columns.get("FG3A")]);
-		FTM = Integer.parseInt(row[columns.get("FTM")]);
-		FTA = Integer.parseInt(row[columns.get("FTA")]);
-		OREB = Integer.parseInt(row[columns.get("OREB")]);
-		DREB = Integer.parseInt(row[columns.get("DREB")]);
-		AST = Integer.parseInt(row[columns.get("AST")]);
-		STL = Integer.parseInt(row[columns.get("STL")]);
-		BLK = Integer.parseInt(row[columns.get("BLK")]);
-		TOV = Integer.parseInt(row[columns.get("TOV")]);
-		PF = Integer.parseInt(row[columns.get("PF")]);
-		PTS = Integer.parseInt(row[columns.get("PTS")]);
 	}
 
-	/** Add the statistics for an individual game to team history. */
-	public void addStats(Game game, boolean isHome) {
-		if (isHome) {
-			FGM += game.homeStats.FGM;
-			FGA += game.homeStats.FGA;
-			FG3M += game.homeStats.FG3M;
-			FG3A += game.homeStats.FG3A;
-			FTM += game.homeStats.FTM;
-			FTA += game.homeStats.FTA;
-			OREB += game.homeStats.OREB;
-			DREB += game.homeStats.DREB;
-			AST += game.homeStats.AST;
-			STL += game.homeStats.STL;
-			BLK += game.homeStats.BLK;
-			TOV += game.homeStats.TOV;
-			PF += game.homeStats.PF;
-			PTS += game.homeStats.PTS;
+	public GameStatistics(HashMap<String, Integer> columns, String[] row, String name) {
+		this(new int[STATS], 0, name);
+		for (int j = 0; j < STATS; j++) {
+			data[j] = Integer.parseInt(row[columns.get(LABELS[j])]);
 		}
-		else {
-			FGM += game.roadStats.FGM;
-			FGA += game.roadStats.FGA;
-			FG3M += game.roadStats.FG3M;
-			FG3A += game.roadStats.FG3A;
-			FTM += game.roadStats.FTM;
-			FTA += game.roadStats.FTA;
-			OREB += game.roadStats.OREB;
-			DREB += game.roadStats.DREB;
-			AST += game.roadStats.AST;
-			STL += game.roadStats.STL;
-			BLK += game.roadStats.BLK;
-			TOV += game.roadStats.TOV;
-			PF += game.roadStats.PF;
-			PTS += game.roadStats.PTS;
+	}
+
+	/** Column numbers of the statistics, in row order, from a file header */
+	public static int[] statColumns(HashMap<String, Integer> columns) {
+		int[] statColumns = new int[STATS];
+		for (int j = 0; j < STATS; j++) {
+			statColumns[j] = columns.get(LABELS[j]);
 		}
+		return statColumns;
 	}
 
-	/** Subtract the stats from a particular game from team history */
-	public void subtractStats(Game game, boolean isHome) {
-		if (isHome) {
-			FGM -= game.homeStats.FGM;
-			FGA -= game.homeStats.FGA;
-			FG3M -= game.homeStats.FG3M;
-			FG3A -= game.homeStats.FG3A;
-			FTM -= game.homeStats.FTM;
-			FTA -= game.homeStats.FTA;
-			OREB -= game.homeStats.OREB;
-			DREB -= game.homeStats.DREB;
-			AST -= game.homeStats.AST;
-			STL -= game.homeStats.STL;
-			BLK -= game.homeStats.BLK;
-			TOV -= game.homeStats.TOV;
-			PF -= game.homeStats.PF;
-			PTS -= game.homeStats.PTS;
+	/** Read the statistics from the current row of a RAW game file, using
+	 *  the column numbers from statColumns */
+	public void read(CsvTokenizer row, int[] statColumns)
+			throws CsvTokenizer.FormatException {
+		for (int j = 0; j < STATS; j++) {
+			data[offset + j] = row.getInt(statColumns[j]);
 		}
-		else {
-			FGM -= game.roadStats.FGM;
-			FGA -= game.roadStats.FGA;
-			FG3M -= game.roadStats.FG3M;
-			FG3A -= game.roadStats.FG3A;
-			FTM -= game.roadStats.FTM;
-			FTA -= game.roadStats.FTA;
-			OREB -= game.roadStats.OREB;
-			DREB -= game.roadStats.DREB;
-			AST -= game.roadStats.AST;
-			STL -= game.roadStats.STL;
-			BLK -= game.roadStats.BLK;
-			TOV -= game.roadStats.TOV;
-			PF -= game.roadStats.PF;
-			PTS -= game.roadStats.PTS;
+	}
+
+	/** Read the statistics from a row of numbers (see ResultSetReader),
+	 *  using the column numbers from statColumns. The caller checks for
+	 *  NaN (null) values, which would be read as 0. */
+	public void read(double[] numbers, int[] statColumns) {
+		for (int j = 0; j < STATS; j++) {
+			data[offset + j] = (int) numbers[statColumns[j]];
 		}
 	}
 
+	/** Add the statistics for an individual game to team history. */
+	public void addStats(Game game, boolean isHome) {
+		addStats(isHome ? game.homeStats : game.roadStats);
+	}
+
+	/** Subtract the stats from a particular game from team history */
+	public void subtractStats(Game game, boolean isHome) {
+		subtractStats(isHome ? game.homeStats : game.roadStats);
+	}
+
+	/** Add the statistics of stats (e.g. one game) to these */
+	public void addStats(GameStatistics stats) {
+		add(data, offset, stats.data, stats.offset);
+	}
+
+	/** Subtract the statistics of stats (e.g. one game) from these */
+	public void subtractStats(GameStatistics stats) {
+		subtract(data, offset, stats.data, stats.offset);
+	}
+
+	/** Replace these statistics with a copy of those of stats */
+	public void setStats(GameStatistics stats) {
+		System.arraycopy(stats.data, stats.offset, data, offset, STATS);
+	}
+
 	/** 
 	 * Calculate the average game statistics of team at current time 
 	 * (To be used for computing statistics from prior games in season before
@@ -139,24 +116,39 @@ public class GameStatistics {
 	 */
 	public GameStatistics calcAverage(int gamesPlayed) {
 		GameStatistics stats = new GameStatistics();
-		stats.FGM = FGM / gamesPlayed;
-		stats.FGA = FGA / gamesPlayed;
-		stats.FG3M = FG3M / gamesPlayed;
-		stats.FG3A = FG3A / gamesPlayed;
-		stats.FTM = FTM / gamesPlayed;
-		stats.FTA = FTA / gamesPlayed;
-		stats.OREB = OREB / gamesPlayed;
-		stats.DREB = DREB / gamesPlayed;
-		stats.AST = AST / gamesPlayed;
-		stats.STL = STL / gamesPlayed;
-		stats.BLK = BLK / gamesPlayed;
-		stats.TOV = TOV / gamesPlayed;
-		stats.PF = PF / gamesPlayed;
-		stats.PTS = PTS / gamesPlayed;
+		divide(stats.data, stats.offset, data, offset, gamesPlayed);
+		return stats;
+	}
 
+	/** calcAverage, storing the average as a new row of block */
+	public GameStatistics calcAverage(int gamesPlayed, StatBlock block) {
+		GameStatistics stats = block.addRow(null);
+		divide(stats.data, stats.offset, data, offset, gamesPlayed);
 		return stats;
 	}
 
+	/* Row kernels: plain loops over STATS ints, which the JIT unrolls */
+
+	static void add(int[] to, int toOffset, int[] from, int fromOffset) {
+		for (int j = 0; j < STATS; j++) {
+			to[toOffset + j] += from[fromOffset + j];
+		}
+	}
+
+	static void subtract(int[] to, int toOffset, int[] from, int fromOffset) {
+		for (int j = 0; j < STATS; j++) {
+			to[toOffset + j] -= from[fromOffset + j];
+		}
+	}
+
+	/* Integer (truncating) division, as the season averages always used */
+	static void divide(int[] to, int toOffset, int[] from, int fromOffset,
+			int divisor) {
+		for (int j = 0; j < STATS; j++) {
+			to[toOffset + j] = from[fromOffset + j] / divisor;
+		}
+	}
+
 	public static String gameStatsHeader() {
 		StringBuffer buff = new StringBuffer();
 		buff.append("Team,");
@@ -183,39 +175,56 @@ public class GameStatistics {
 	 */
 	public String getMajorTeamStats() {
 		StringBuffer buff = new StringBuffer();
-		buff.append(FGM).append(",");          // Field goals made
-		buff.append(FG3M).append(",");         // 3-point field goals made
-		buff.append(FTM).append(",");          // Free throws made
-		buff.append(OREB + DREB).append(",");  // Total rebounds
-		buff.append(AST).append(",");          // Assists
-		buff.append(STL).append(",");          // Steals
-		buff.append(BLK).append(",");          // Blocks
-		buff.append(TOV).append(",");          // Turn overs
-		buff.append(PTS);                      // Game score
+		buff.append(data[offset + FGM]).append(",");	// Field goals made
+		buff.append(data[offset + FG3M]).append(",");	// 3-point field goals made
+		buff.append(data[offset + FTM]).append(",");	// Free throws made
+		buff.append(data[offset + OREB] + data[offset + DREB])
+				.append(",");							// Total rebounds
+		buff.append(data[offset + AST]).append(",");	// Assists
+		buff.append(data[offset + STL]).append(",");	// Steals
+		buff.append(data[offset + BLK]).append(",");	// Blocks
+		buff.append(data[offset + TOV]).append(",");	// Turn overs
+		buff.append(data[offset + PTS]);				// Game score
 		return buff.toString();
 	}
 
+	/**
+	 * Write the statistics of getMajorTeamStats, each divided by divisor
+	 * (e.g. games played, for an average), into out starting at out[at].
+	 */
+	public void getMajorStats(double[] out, int at, double divisor) {
+		out[at] = data[offset + FGM] / divisor;
+		out[at + 1] = data[offset + FG3M] / divisor;
+		out[at + 2] = data[offset + FTM] / divisor;
+		out[at + 3] = (data[offset + OREB] + data[offset + DREB]) / divisor;
+		out[at + 4] = data[offset + AST] / divisor;
+		out[at + 5] = data[offset + STL] / divisor;
+		out[at + 6] = data[offset + BLK] / divisor;
+		out[at + 7] = data[offset + TOV] / divisor;
+		out[at + 8] = data[offset + PTS] / divisor;
+	}
+
 	public int getTotalScore() {
-		return PTS;
+		return data[offset + PTS];
 	}
 
 	public String toString() {
 		StringBuffer buff = new StringBuffer();
 		buff.append(name).append(",");
-		buff.append(PTS).append(",");
-		buff.append(FGM).append(",");
-		buff.append(FGA).append(",");
-		buff.append(FG3M).append(",");
-		buff.append(FG3A).append(",");
-		buff.append(FTM).append(",");
-		buff.append(FTA).append(",");
-		buff.append(OREB).append(",");
-		buff.append(DREB).append(",");
-		buff.append(AST).append(",");
-		buff.append(STL).append(",");
-		buff.append(BLK).append(",");
-		buff.append(TOV).append(",");
-		buff.append(PF);
+		buff.append(data[offset + PTS]).append(",");
+		buff.append(data[offset + FGM]).append(",");
+		buff.append(data[offset + FGA]).append(",");
+		buff.append(data[offset + FG3M]).append(",");
+		buff.append(data[offset + FG3A]).append(",");
+		buff.append(data[offset + FTM]).append(",");
+		buff.append(data[offset + FTA]).append(",");
+		buff.append(data[offset + OREB]).append(",");
+		buff.append(data[offset + DREB]).append(",");
+		buff.append(data[offset + AST]).append(",");
+		buff.append(data[offset + STL]).append(",");
+		buff.append(data[offset + BLK]).append(",");
+		buff.append(data[offset + TOV]).append(",");
+		buff.append(data[offset + PF]);
 		return buff.toString();
 	}
 }
\ No newline at end of file
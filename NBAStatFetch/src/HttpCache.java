@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HttpCache.java
+ * On-disk cache of HTTP responses for HttpUtil, so re-running the fetchers
+ * does not download pages that have not changed.
+ *
+ * Entries are content-addressed: a request (method, URL and POST body) is
+ * stored under the SHA-256 of its text as
+ * 		<dir>/<hash>.body		the response body, streamed to disk
+ * 		<dir>/<hash>.meta		URL, ETag, Last-Modified and fetch time
+ * An entry younger than the time-to-live of its request is used without
+ * contacting the server. An older one is revalidated with If-None-Match /
+ * If-Modified-Since, and a 304 Not Modified renews it without a download.
+ * If the server cannot be reached, a stale entry is used rather than none.
+ * Requests are made through HttpUtil's pooled connections, and gzip
+ * responses are stored decoded.
+ *
+ * The time-to-live of a request is that of the first rule whose pattern is
+ * found in its URL or body, or the default. stats.nba.com requests for a
+ * Season that has ended never expire (see forNBAStats).
+ */
+
+public class HttpCache {
+	public static final long FOREVER = Long.MAX_VALUE;
+
+	/* Season=2011-12 style parameter of stats.nba.com requests */
+	private static final Pattern SEASON = Pattern.compile("Season=(\\d{4})-\\d\\d");
+
+	private final File dir;
+	private final long defaultTtl;	// milliseconds
+	private final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+	private final ArrayList<Long> ttls = new ArrayList<Long>();
+	private boolean keepCompletedSeasons = false;
+
+	/** Constructor - Cache in dir, revalidating entries older than
+	 *  defaultTtl milliseconds unless a rule says otherwise */
+	public HttpCache(String dir, long defaultTtl) {
+		this.dir = new File(dir);
+		this.defaultTtl = defaultTtl;
+		this.dir.mkdirs();
+	}
+
+	/**
+	 * Cache for stats.nba.com: requests for a completed season never
+	 * expire, others are revalidated after an hour.
+	 */
+	public static HttpCache forNBAStats(String dir) {
+		HttpCache cache = new HttpCache(dir, 60 * 60 * 1000L);
+		cache.keepCompletedSeasons = true;
+		return cache;
+	}
+
+	/** Give requests whose URL or body contains a match of regex a
+	 *  time-to-live of ttl milliseconds (FOREVER to never revalidate) */
+	public synchronized void addRule(String regex, long ttl) {
+		patterns.add(Pattern.compile(regex));
+		ttls.add(ttl);
+	}
+
+	/** Time-to-live of a request, in milliseconds */
+	public synchronized long ttlFor(String serverUrl, String body) {
+		String request = (body == null) ? serverUrl : serverUrl + "\n" + body;
+		if (keepCompletedSeasons) {
+			Matcher m = SEASON.matcher(request);
+			if (m.find() && isCompleted(Integer.parseInt(m.group(1)))) {
+				return FOREVER;
+			}
+		}
+		for (int r = 0; r < patterns.size(); r++) {
+			if (patterns.get(r).matcher(request).find()) {
+				return ttls.get(r);
+			}
+		}
+		return defaultTtl;
+	}
+
+	/** True if the season starting in the fall of startYear has ended,
+	 *  i.e. it is July of the following year or later */
+	static boolean isCompleted(int startYear) {
+		Calendar end = Calendar.getInstance();
+		end.clear();
+		end.set(startYear + 1, Calendar.JULY, 1);
+		return System.currentTimeMillis() >= end.getTimeInMillis();
+	}
+
+	/**
+	 * The response body of a GET (body null) or form POST request, from the
+	 * cache or the server.
+	 *
+	 * @return the file holding the body; read it, but do not modify it
+	 * @throws IOException if the server fails and nothing is cached
+	 */
+	public File get(String serverUrl, String body) throws IOException {
+		String key = key(serverUrl, body);
+		File bodyFile = new File(dir, key + ".body");
+		File metaFile = new File(dir, key + ".meta");
+		Properties meta = readMeta(metaFile, bodyFile);
+
+		long now = System.currentTimeMillis();
+		if (meta != null) {
+			long fetched = Long.parseLong(meta.getProperty("fetched", "0"));
+			long ttl = ttlFor(serverUrl, body);
+			if (ttl == FOREVER || now - fetched < ttl) {
+				return bodyFile;
+			}
+		}
+
+		try {
+			HttpURLConnection conn = HttpUtil.newConnection(serverUrl);
+			if (meta != null) {
+				if (meta.getProperty("etag") != null) {
+					conn.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+				}
+				if (meta.getProperty("lastModified") != null) {
+					conn.setRequestProperty("If-Modified-Since",
+							meta.getProperty("lastModified"));
+				}
+			}
+			if (body != null) {
+				HttpUtil.send(conn, HttpUtil.FORM, body);
+			}
+
+			if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+					&& meta != null) {
+				HttpUtil.drain(conn.getInputStream());
+				meta.setProperty("fetched", "" + now);
+				writeMeta(metaFile, meta);
+				return bodyFile;
+			}
+			InputStream in = HttpUtil.responseStream(conn);
+
+			// Stream the body to a file of its own, then move it into place
+			File partial = File.createTempFile(key, ".tmp", dir);
+			try {
+				copy(in, partial);
+				replace(partial, bodyFile);
+			} finally {
+				partial.delete();
+			}
+			Properties fresh = new Properties();
+			fresh.setProperty("url", serverUrl);
+			fresh.setProperty("fetched", "" + now);
+			if (conn.getHeaderField("ETag") != null) {
+				fresh.setProperty("etag", conn.getHeaderField("ETag"));
+			}
+			if (conn.getHeaderField("Last-Modified") != null) {
+				fresh.setProperty("lastModified", conn.getHeaderField("Last-Modified"));
+			}
+			writeMeta(metaFile, fresh);
+			return bodyFile;
+		} catch (IOException e) {
+			if (meta != null) {
+				System.out.println("Using stale cached copy of " + serverUrl +
+						": " + e.getMessage());
+				return bodyFile;
+			}
+			throw e;
+		}
+	}
+
+	/** get, opening the body file */
+	public InputStream open(String serverUrl, String body) throws IOException {
+		return new FileInputStream(get(serverUrl, body));
+	}
+
+	/** Hex SHA-256 of the request */
+	static String key(String serverUrl, String body) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(((body == null ? "GET " : "POST ") + serverUrl)
+					.getBytes("UTF-8"));
+			if (body != null) {
+				digest.update((byte) '\n');
+				digest.update(body.getBytes("UTF-8"));
+			}
+			StringBuffer hex = new StringBuffer();
+			for (byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);		// UTF-8 is always there
+		}
+	}
+
+	/** The metadata of an entry, or null if it has no complete entry */
+	private static Properties readMeta(File metaFile, File bodyFile) {
+		if (!metaFile.isFile() || !bodyFile.isFile()) {
+			return null;
+		}
+		try {
+			InputStream in = new FileInputStream(metaFile);
+			try {
+				Properties meta = new Properties();
+				meta.load(in);
+				return meta;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void writeMeta(File metaFile, Properties meta) throws IOException {
+		File partial = File.createTempFile(metaFile.getName(), ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(partial);
+			try {
+				meta.store(out, null);
+			} finally {
+				out.close();
+			}
+			replace(partial, metaFile);
+		} finally {
+			partial.delete();
+		}
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		in = new BufferedInputStream(in);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			out.close();
+			in.close();
+		}
+	}
+
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("Cannot replace " + to);
+			}
+		}
+	}
+}
@@ -1,51 +1,67 @@
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
 
 /**
  * HttpUtil.java
  * Utility to communicate with HTTP Server
- * 
+ * GET and form POST requests go through an HttpCache if one is set.
+ *
+ * Connections are kept alive and reused: no request asks the server to
+ * close, and every response is read to the end and closed rather than
+ * disconnected, so HttpURLConnection returns the socket to its pool (see
+ * the http.maxConnections system property). Responses are requested gzip
+ * encoded and decoded while they are read. openStream and openReader hand
+ * the decoded body to the caller as it arrives (e.g. to a JSON parser), so
+ * it never has to be held whole; getData and friends still return Strings,
+ * and have asynchronous forms.
+ *
  * @author Michelle Shu with help from my dad, Yueming Xu
  */
 public class HttpUtil {
+	static final String FORM = "application/x-www-form-urlencoded";
+	static final String SOAP = "application/soap+xml";
+	private static final int ASYNC_THREADS = 8;
+
+	private static volatile HttpCache cache;	// null to always fetch
+
+	/* Threads of the asynchronous requests; daemons, so they never keep
+	 * the program running */
+	private static final ExecutorService async = Executors.newFixedThreadPool(
+			ASYNC_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "HttpUtil");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/** Serve GET and form POST requests from cache (null for none) */
+	public static void setCache(HttpCache cache) {
+		HttpUtil.cache = cache;
+	}
 
 	/**
 	 * Send an HTTP GET request, and return the response data
 	 */
 	public static String getData(String serverUrl) {
-		HttpURLConnection conn = null;
-		String response = null;
 		try {
-			URL url = new URL(serverUrl);
-			conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestProperty("charset", "utf-8");
-			conn.setUseCaches(false);
-			conn.setDoOutput(true);
-			conn.setRequestProperty("Content-Language", "en-US");
-			conn.setReadTimeout(10000);
-
-			// read response from the server
-			BufferedReader rd = new BufferedReader(new InputStreamReader(
-					conn.getInputStream()));
-			StringBuffer sb = new StringBuffer();
-			String line = null;
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
-			}
-			rd.close();
-			response = sb.toString();
+			return readAll(openReader(serverUrl, null));
 		} catch (Exception e) {
 			System.out.println("Failed to get data from HTTP request: " + e.getMessage());
 			e.printStackTrace();
-		} finally {
-			if (conn != null) {
-				conn.disconnect();
-			}
+			return null;
 		}
-		return response;
 	}
 
 	/**
@@ -53,100 +69,145 @@ public class HttpUtil {
 	 * Use this method if parameter list is too long for an HTTP GET request
 	 */
 	public static String postParameters(String serverUrl, String parameters) {
-		HttpURLConnection conn = null;
-		String response = null;
 		try {
-			URL url = new URL(serverUrl);
-			conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestMethod("POST");
-			conn.setConnectTimeout(5000);
-			conn.setRequestProperty("Connection", "close");
-			conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-			conn.setRequestProperty("charset", "utf-8");
-			conn.setRequestProperty("Content-Length", ""
-					+ parameters.getBytes().length);
-			// conn.setRequestProperty("Content-Language", "en-US");
-			conn.setUseCaches(false);
-			conn.setDoInput(true);
-			conn.setDoOutput(true);
-			// connection.setReadTimeout(10000);
-			// conn.connect();
-
-			// post data to the server
-			DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-			os.writeBytes(parameters);
-			os.flush();
-			os.close();
-
-			// read response from the server
-			BufferedReader rd = new BufferedReader(new InputStreamReader(
-					conn.getInputStream()));
-			StringBuffer sb = new StringBuffer();
-			String line = null;
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
-			}
-			rd.close();
-			response = sb.toString();
+			return readAll(openReader(serverUrl, parameters));
 		} catch (Exception e) {
 			System.out.println("Failed to post HTTP with parameters: " + e.getMessage());
 			e.printStackTrace();
-		} finally {
-			if (conn != null) {
-				conn.disconnect();
-			}
+			return null;
 		}
-		return response;
 	}
-	
+
 	/**
 	 * Send an HTTP POST request to invoke SOAP web-service, return the response message.
 	 * Update the request properties to support other types of POST requests.
 	 */
 	public static String postData(String serverUrl, String content) {
-		HttpURLConnection conn = null;
-		String response = null;
 		try {
-			URL url = new URL(serverUrl);
-			conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestMethod("POST");
-			conn.setConnectTimeout(5000);
-			conn.setRequestProperty("Connection", "close");
-			conn.setRequestProperty("Content-Type", "application/soap+xml");
+			HttpURLConnection conn = newConnection(serverUrl);
 			conn.setRequestProperty("SoapAction", "");
-			conn.setRequestProperty("Content-Length", ""
-					+ content.getBytes().length);
-			// conn.setRequestProperty("Content-Language", "en-US");
-			conn.setUseCaches(false);
-			conn.setDoInput(true);
-			conn.setDoOutput(true);
-			// connection.setReadTimeout(10000);
-			// conn.connect();
-
-			// post data to the server
-			DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-			os.writeBytes(content);
-			os.flush();
-			os.close();
-
-			// read response from the server
-			BufferedReader rd = new BufferedReader(new InputStreamReader(
-					conn.getInputStream()));
-			StringBuffer sb = new StringBuffer();
-			String line = null;
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
-			}
-			rd.close();
-			response = sb.toString();
+			send(conn, SOAP, content);
+			return readAll(new InputStreamReader(responseStream(conn), "UTF-8"));
 		} catch (Exception e) {
 			System.out.println("Failed to post HTTP request: " + e.getMessage());
 			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** getData on a background thread */
+	public static Future<String> getDataAsync(final String serverUrl) {
+		return async.submit(new Callable<String>() {
+			public String call() {
+				return getData(serverUrl);
+			}
+		});
+	}
+
+	/** postParameters on a background thread */
+	public static Future<String> postParametersAsync(final String serverUrl,
+			final String parameters) {
+		return async.submit(new Callable<String>() {
+			public String call() {
+				return postParameters(serverUrl, parameters);
+			}
+		});
+	}
+
+	/**
+	 * Open the decoded response body of a GET request (parameters null) or
+	 * form POST request, from the cache if one is set. The caller must
+	 * close the stream, which returns the connection to the pool.
+	 */
+	public static InputStream openStream(String serverUrl, String parameters)
+			throws IOException {
+		HttpCache cache = HttpUtil.cache;
+		if (cache != null) {
+			return cache.open(serverUrl, parameters);
+		}
+		HttpURLConnection conn = newConnection(serverUrl);
+		if (parameters != null) {
+			send(conn, FORM, parameters);
+		}
+		return responseStream(conn);
+	}
+
+	/** openStream, decoding the body as UTF-8 text */
+	public static Reader openReader(String serverUrl, String parameters)
+			throws IOException {
+		return new InputStreamReader(openStream(serverUrl, parameters), "UTF-8");
+	}
+
+	/** A connection to serverUrl with the settings shared by all requests */
+	static HttpURLConnection newConnection(String serverUrl) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(serverUrl).openConnection();
+		conn.setConnectTimeout(5000);
+		conn.setReadTimeout(10000);
+		conn.setUseCaches(false);
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		conn.setRequestProperty("Content-Language", "en-US");
+		return conn;
+	}
+
+	/** Make conn a POST request with the given body */
+	static void send(HttpURLConnection conn, String contentType, String content)
+			throws IOException {
+		byte[] bytes = content.getBytes("UTF-8");
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", contentType);
+		conn.setRequestProperty("charset", "utf-8");
+		conn.setFixedLengthStreamingMode(bytes.length);
+		OutputStream os = conn.getOutputStream();
+		os.write(bytes);
+		os.close();
+	}
+
+	/**
+	 * The body of a successful response, gzip-decoded if needed.
+	 * An error response is read and closed, so the connection can still be
+	 * reused, and reported as an IOException.
+	 */
+	static InputStream responseStream(HttpURLConnection conn) throws IOException {
+		int status = conn.getResponseCode();
+		if (status >= 400) {
+			InputStream error = conn.getErrorStream();
+			if (error != null) {
+				drain(error);
+			}
+			throw new IOException("HTTP " + status + " from " + conn.getURL());
+		}
+		InputStream in = conn.getInputStream();
+		if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+			in = new GZIPInputStream(in);
+		}
+		return in;
+	}
+
+	/** Read the rest of a stream and close it */
+	static void drain(InputStream in) throws IOException {
+		try {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) >= 0) {
+				// discard
+			}
 		} finally {
-			if (conn != null) {
-				conn.disconnect();
+			in.close();
+		}
+	}
+
+	/** Read the rest of a reader into a String and close it */
+	static String readAll(Reader rd) throws IOException {
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			int n;
+			while ((n = rd.read(buffer)) > 0) {
+				sb.append(buffer, 0, n);
 			}
+			return sb.toString();
+		} finally {
+			rd.close();
 		}
-		return response;
 	}
 }
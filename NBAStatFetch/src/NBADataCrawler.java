@@ -0,0 +1,246 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * NBADataCrawler.java
+ * Resumable crawl of the databasebasketball.com daily scores pages of a
+ * range of dates (see NBADataParser). The raw pages are kept in an archive
+ * directory,
+ * 		<dir>/<yyyy-MM-dd>.html		the page of each date fetched
+ * 		<dir>/journal.txt			the dates fetched, one per line
+ * A page is moved into place before its date is appended to the journal,
+ * so a date in the journal always has a complete page, and a crawl that
+ * fails or is stopped part way is resumed by crawling the same dates again:
+ * only dates not in the journal are fetched.
+ *
+ * The dates still to fetch are split into work units of consecutive dates,
+ * run by a fixed number of threads that share a TokenBucket. A unit stops
+ * at its first date that fails (after retries), leaving the rest of it to
+ * the next crawl. merge writes the games of the archived pages in date
+ * order, whatever order they were fetched in.
+ */
+
+public class NBADataCrawler {
+	public static final String JOURNAL = "journal.txt";
+	public static final int UNIT_DATES = 7;
+	public static final int RETRIES = 2;
+
+	private final File dir;
+	private final int threads;
+	private final TokenBucket bucket;
+	private int unitDates = UNIT_DATES;
+	private int retries = RETRIES;
+	private final Set<String> completed = new HashSet<String>();	// dates in the journal
+	private Writer journal;		// open while crawling
+
+	/** Constructor - Crawl into dir, threads requests at a time at the rate
+	 *  of bucket */
+	public NBADataCrawler(String dir, int threads, TokenBucket bucket)
+			throws IOException {
+		this.dir = new File(dir);
+		this.threads = threads;
+		this.bucket = bucket;
+		this.dir.mkdirs();
+		readJournal();
+	}
+
+	/** Set the number of consecutive dates in a work unit */
+	public void setUnitDates(int unitDates) {
+		this.unitDates = Math.max(1, unitDates);
+	}
+
+	/** Set the number of times a failed date is retried before its unit
+	 *  gives up */
+	public void setRetries(int retries) {
+		this.retries = Math.max(0, retries);
+	}
+
+	/** True if the page of date (yyyy-MM-dd) has been archived */
+	public synchronized boolean isCompleted(String date) {
+		return completed.contains(date);
+	}
+
+	/**
+	 * Fetch and archive the pages of the dates not crawled yet.
+	 *
+	 * @param dates dates as yyyy-MM-dd (see NBADataParser.nbaDates)
+	 * @return the dates still not archived, in the order of dates; empty
+	 * if the crawl is complete
+	 */
+	public List<String> crawl(List<String> dates) throws IOException {
+		ArrayList<Callable<Object>> units = new ArrayList<Callable<Object>>();
+		ArrayList<String> unit = new ArrayList<String>();
+		for (String date : dates) {
+			if (!isCompleted(date)) {
+				unit.add(date);
+			}
+			if (unit.size() == unitDates) {
+				units.add(newUnit(unit));
+				unit = new ArrayList<String>();
+			}
+		}
+		if (!unit.isEmpty()) {
+			units.add(newUnit(unit));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		journal = new OutputStreamWriter(new FileOutputStream(
+				new File(dir, JOURNAL), true), "UTF-8");
+		try {
+			for (Future<Object> result : pool.invokeAll(units)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+			synchronized (this) {
+				journal.close();
+				journal = null;
+			}
+		}
+
+		ArrayList<String> missing = new ArrayList<String>();
+		for (String date : dates) {
+			if (!isCompleted(date)) {
+				missing.add(date);
+			}
+		}
+		return missing;
+	}
+
+	/** A work unit fetching dates in order, stopping at a failure */
+	private Callable<Object> newUnit(final List<String> dates) {
+		return new Callable<Object>() {
+			public Object call() throws InterruptedException {
+				for (String date : dates) {
+					if (!fetch(date)) {
+						break;
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	/** Fetch, archive and journal the page of a date; false if it fails */
+	private boolean fetch(String date) throws InterruptedException {
+		String[] ymd = date.split("-");
+		for (int attempt = 0; attempt <= retries; attempt++) {
+			bucket.acquire();
+			try {
+				String html = NBADataParser.queryPage(Integer.parseInt(ymd[0]),
+						Integer.parseInt(ymd[1]), Integer.parseInt(ymd[2]));
+				archive(date, html);
+				complete(date);
+				System.out.println(date + " " + pageGames(html));
+				return true;
+			} catch (IOException e) {
+				System.out.println("Failed to fetch " + date + " (attempt " +
+						(attempt + 1) + "): " + e.getMessage());
+			}
+		}
+		return false;
+	}
+
+	private static int pageGames(String html) {
+		String[] games = NBADataParser.parseGames(html);
+		return (games == null) ? 0 : games.length;
+	}
+
+	/** Write the page of a date to a file of its own, then move it into place */
+	private void archive(String date, String html) throws IOException {
+		File page = pageFile(date);
+		File partial = File.createTempFile(date, ".tmp", dir);
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(partial),
+					"UTF-8");
+			try {
+				out.write(html);
+			} finally {
+				out.close();
+			}
+			if (!partial.renameTo(page)) {
+				page.delete();
+				if (!partial.renameTo(page)) {
+					throw new IOException("Cannot replace " + page);
+				}
+			}
+		} finally {
+			partial.delete();
+		}
+	}
+
+	/** Record a date as completed, flushing the journal at once */
+	private synchronized void complete(String date) throws IOException {
+		if (journal == null) {
+			throw new IOException("Crawl stopped before " + date);
+		}
+		journal.write(date + "\n");
+		journal.flush();
+		completed.add(date);
+	}
+
+	/**
+	 * Read the journal. A line cut short when a crawl was stopped, or a date
+	 * whose page is missing, does not count.
+	 */
+	private void readJournal() throws IOException {
+		File file = new File(dir, JOURNAL);
+		if (!file.isFile()) {
+			return;
+		}
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String date = line.trim();
+				if (date.matches("\\d{4}-\\d\\d-\\d\\d") && pageFile(date).isFile()) {
+					completed.add(date);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private File pageFile(String date) {
+		return new File(dir, date + NBADataParser.PAGE_SUFFIX);
+	}
+
+	/**
+	 * Write the games of the archived pages of dates to outFile, in the
+	 * order of dates, parsing the pages concurrently. Dates not crawled are
+	 * left out.
+	 *
+	 * @return the number of games written
+	 */
+	public int merge(List<String> dates, String outFile) throws IOException {
+		ArrayList<File> pages = new ArrayList<File>();
+		for (String date : dates) {
+			if (isCompleted(date)) {
+				pages.add(pageFile(date));
+			}
+		}
+		return NBADataParser.parsePages(pages.toArray(new File[pages.size()]),
+				outFile, threads);
+	}
+}
@@ -1,77 +1,119 @@
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class NBADataParser {
 
-	private static String[] extractGames(String html) {
-		String tableContent = extractData(html, "value=\"Get Scores\"", null);
-		if (tableContent != null) {
-			ArrayList<String> gameList = new ArrayList<String>();
-			int startIndex = 0;
-			while ((startIndex = tableContent.indexOf("<tr>")) >= 0) {
-				gameList.add(extractData(tableContent, "<tr>", "</tr>"));
-				tableContent = tableContent.substring(startIndex + 4);
-			}
-			if (gameList.size() > 0) {
-				String[] games = new String[gameList.size()];
-				gameList.toArray(games);
-				return games;
-			}
+	/* Crawl settings: a few requests at a time, at a polite rate */
+	static String scoresServer = "http://www.databasebasketball.com/boxscores/dailyscores.htm?lg=N";
+	public static final String ARCHIVE_DIR = "data/scores";
+	public static final int CRAWL_THREADS = 4;
+	public static final int REQUESTS_PER_SECOND = 2;
+
+	/* Archived pages are named <yyyy-MM-dd>.html */
+	static final String PAGE_SUFFIX = ".html";
+
+	/* Marks the start of the score table of a daily scores page */
+	private static final String SCORES = "value=\"Get Scores\"";
+
+	/**
+	 * Return the games of a daily scores page as comma-delimited lines (see
+	 * parseGame), or null if it has none.
+	 * The page is scanned once from front to back: rows and cells are found
+	 * by index, and only the field values are copied out of it.
+	 */
+	static String[] parseGames(String html) {
+		int table = (html == null) ? -1 : html.indexOf(SCORES);
+		if (table < 0) {
+			return null;
+		}
+		int end = html.length();
+		ArrayList<String> gameList = new ArrayList<String>();
+		int row = find(html, "<tr>", table + SCORES.length(), end);
+		while (row >= 0) {
+			int start = row + 4;
+			int rowEnd = find(html, "</tr>", start, end);
+			gameList.add(parseGame(html, start, (rowEnd < 0) ? end : rowEnd));
+			row = find(html, "<tr>", start, end);
+		}
+		if (gameList.size() > 0) {
+			String[] games = new String[gameList.size()];
+			gameList.toArray(games);
+			return games;
 		}
 		return null;
 	}
 	
 	/**
 	 * Return comma-delimited line as RoadTeam,score,HomeTeam,score
-	 * @param game
+	 * @param html
+	 * @param from start of the row content
+	 * @param to end of the row content
 	 * @return
 	 */
-	private static String parseGame(String game) {
-		int startIndex = 0;
+	private static String parseGame(String html, int from, int to) {
 		StringBuffer buff = new StringBuffer();
-		while ((startIndex = game.indexOf("<td>")) >= 0) {
-			String field = extractData(game, "<td>", "</td>");
-			if (!"at".equals(field)) {
-				int index = field.indexOf("teamyear");
-				if (index >= 0) {
-					field = extractData(field.substring(index), "tm=", "&lg");
-				}
+		int cell = find(html, "<td>", from, to);
+		while (cell >= 0) {
+			int start = cell + 4;
+			int end = find(html, "</td>", start, to);
+			if (end < 0) {
+				end = to;
+			}
+			if (!(end - start == 2 && html.startsWith("at", start))) {
 				if (buff.length() > 0) buff.append(',');
-				buff.append(field);
+				int link = find(html, "teamyear", start, end);
+				if (link < 0) {
+					buff.append(html, start, end);
+				} else {
+					// team link: the field is the tm= parameter
+					int tm = find(html, "tm=", link, end);
+					if (tm < 0) {
+						buff.append((String) null);
+					} else {
+						int lg = find(html, "&lg", tm + 3, end);
+						buff.append(html, tm + 3, (lg < 0) ? end : lg);
+					}
+				}
 			}
-			game = game.substring(startIndex + 4);
+			cell = find(html, "<td>", start, to);
 		}
 		return buff.toString();
 	}
 	
 	/**
-	 * Extract part of the data between a start string and an end string.
-	 * If end-string is null, return the content after the start-string.
+	 * Index of the first occurrence of target that lies within
+	 * data[from, to), or -1. Never looks past to, so finding the cells of a
+	 * row costs no more than the length of the row.
 	 * 
 	 * @param data
-	 * @param start
-	 * @param end
+	 * @param target
+	 * @param from
+	 * @param to
 	 * @return
 	 */
-	private static String extractData(String data, String start, String end) {
-		int startIdx = data.indexOf(start);
-		int endIdx = 0;
-		if (startIdx >= 0 && end != null) {
-			endIdx = data.indexOf(end, startIdx + start.length());
-		}
-		if (startIdx >= 0) {
-			if (endIdx > 0) {
-				return data.substring(startIdx+start.length(), endIdx);
-			} else {
-				return data.substring(startIdx+start.length());
+	private static int find(String data, String target, int from, int to) {
+		char first = target.charAt(0);
+		for (int i = from, last = to - target.length(); i <= last; i++) {
+			if (data.charAt(i) == first && data.startsWith(target, i)) {
+				return i;
 			}
-		} else {
-			return null;
 		}
+		return -1;
 	}
 
 	/**
@@ -79,7 +121,7 @@ public class NBADataParser {
 	 * @param d
 	 * @return
 	 */
-	private static Calendar nextNBADate(Calendar cal) {
+	static Calendar nextNBADate(Calendar cal) {
 		cal.add(Calendar.DATE, 1);
 		int month = cal.get(Calendar.MONTH);
 		if (month > 4 && month < 9) {
@@ -89,54 +131,159 @@ public class NBADataParser {
 		return cal;
 	}
 	
-	private static String[] queryGames(int year, int month, int date) {
-		String serverUrl = "http://www.databasebasketball.com/boxscores/dailyscores.htm?lg=N";
+	/**
+	 * Returns the count NBA dates after the date first, as yyyy-MM-dd
+	 * @param first
+	 * @param count
+	 * @return
+	 */
+	static List<String> nbaDates(String first, int count) throws ParseException {
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(fmt.parse(first));
+		ArrayList<String> dates = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			dates.add(fmt.format(nextNBADate(cal).getTime()));
+		}
+		return dates;
+	}
+	
+	/**
+	 * Returns the daily scores page of a date
+	 * @throws IOException if the request fails or the response is not a
+	 * daily scores page
+	 */
+	static String queryPage(int year, int month, int date) throws IOException {
+		String html = HttpUtil.readAll(HttpUtil.openReader(scoresServer,
+				scoresParameters(year, month, date)));
+		if (html.indexOf(SCORES) < 0) {
+			throw new IOException("Not a daily scores page for " + year + "-" +
+					month + "-" + date);
+		}
+		return html;
+	}
+
+	private static String scoresParameters(int year, int month, int date) {
 		StringBuffer params = new StringBuffer("m=");
 		params.append(month);
 		params.append("&d=").append(date);
 		params.append("&y=").append(year);
 		params.append("&submit=Get+Scores");
-		String response = HttpUtil.postParameters(serverUrl, params.toString());
-		String[] games = extractGames(response);
-		if (games != null) {
-			String[] gameCsv = new String[games.length];
-			for (int i = 0; i < games.length; i++) {
-				gameCsv[i] = parseGame(games[i]);
+		return params.toString();
+	}
+
+	/**
+	 * Parse the daily scores pages archived in dir, one file per date named
+	 * yyyy-MM-dd.html, and write their games as the crawl does, in date
+	 * order. Pages are parsed concurrently, one task per page, so the parser
+	 * can be changed and the archive re-parsed without crawling again.
+	 * 
+	 * @return the number of games written
+	 */
+	public static int reparse(String dir, String outFile, int threads)
+			throws IOException {
+		File[] pages = new File(dir).listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(PAGE_SUFFIX);
 			}
-			return gameCsv;
-		}
-		else {
-			return null;
+		});
+		if (pages == null) {
+			throw new IOException("Cannot list " + dir);
 		}
+		Arrays.sort(pages);	// yyyy-MM-dd names sort by date
+		return parsePages(pages, outFile, threads);
 	}
 
-	public static void main(String[] args) throws Exception {
-		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
-		Date dt = fmt.parse("2006-10-01");
-		PrintWriter nbaFile = new PrintWriter(new File("c:/temp/nba.txt"));
+	/**
+	 * Parse archived pages concurrently, and write their games in the order
+	 * of pages
+	 * 
+	 * @return the number of games written
+	 */
+	static int parsePages(File[] pages, String outFile, int threads)
+			throws IOException {
+		ArrayList<Callable<String[]>> tasks = new ArrayList<Callable<String[]>>();
+		for (final File page : pages) {
+			tasks.add(new Callable<String[]>() {
+				public String[] call() throws IOException {
+					return parseGames(readPage(page));
+				}
+			});
+		}
 
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(dt);
-		for (int i = 1; i < 1050; i++) {
-			nextNBADate(cal);
-			String dtStr = fmt.format(cal.getTime());
-			String[] gameCsv = queryGames(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH)+1, cal.get(Calendar.DATE));
-			if (gameCsv != null) {
-				for (String g : gameCsv) {
-					nbaFile.println(dtStr + "," + g);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		PrintWriter nbaFile = new PrintWriter(new File(outFile));
+		int count = 0;
+		try {
+			// Results are taken in page order, whatever order they finish in
+			List<Future<String[]>> results = pool.invokeAll(tasks);
+			for (int p = 0; p < pages.length; p++) {
+				String name = pages[p].getName();
+				String dtStr = name.substring(0, name.length() - PAGE_SUFFIX.length());
+				String[] gameCsv;
+				try {
+					gameCsv = results.get(p).get();
+				} catch (ExecutionException e) {
+					System.out.println("Failed to parse " + pages[p] + ": " +
+							e.getCause());
+					continue;
+				}
+				if (gameCsv != null) {
+					for (String g : gameCsv) {
+						nbaFile.println(dtStr + "," + g);
+					}
+					count += gameCsv.length;
 				}
 			}
-			System.out.println(dtStr + " " + (gameCsv == null ? 0 : gameCsv.length));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			nbaFile.close();
+			pool.shutdown();
+		}
+		return count;
+	}
+
+	/** Read an archived page, which is stored as UTF-8 */
+	static String readPage(File page) throws IOException {
+		return HttpUtil.readAll(new InputStreamReader(new FileInputStream(page),
+				"UTF-8"));
+	}
+
+	/**
+	 * Crawl databasebasketball.com into ARCHIVE_DIR (see NBADataCrawler)
+	 * and write the games, or with arguments
+	 * 		-reparse archive-dir out-file [threads]
+	 * re-parse archived pages instead (see reparse).
+	 * An interrupted or failed crawl is resumed by running it again.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 3 && "-reparse".equals(args[0])) {
+			int threads = (args.length > 3) ? Integer.parseInt(args[3]) :
+					Runtime.getRuntime().availableProcessors();
+			int count = reparse(args[1], args[2], threads);
+			System.out.println(count + " games written to " + args[2]);
+			return;
+		}
+
+		List<String> dates = nbaDates("2006-10-01", 1049);
+		NBADataCrawler crawler = new NBADataCrawler(ARCHIVE_DIR, CRAWL_THREADS,
+				new TokenBucket(REQUESTS_PER_SECOND, CRAWL_THREADS));
+		List<String> missing = crawler.crawl(dates);
+		if (missing.isEmpty()) {
+			int count = crawler.merge(dates, "c:/temp/nba.txt");
+			System.out.println(count + " games written to c:/temp/nba.txt");
+		} else {
+			System.out.println(missing.size() + " dates not fetched, from " +
+					missing.get(0) + "; run again to resume");
 		}
-		nbaFile.close();
 
 		/*
 		String serverUrl = "http://www.databasebasketball.com/boxscores/dailyscores.htm?lg=N";
 		String params = "m=5&d=10&y=2010&submit=Get+Scores";
 		String response = HttpUtil.postParameters(serverUrl, params);
-		String[] games = extractGames(response);
-		for (String g : games) {
-			System.out.println(parseGame(g));
+		for (String g : parseGames(response)) {
+			System.out.println(g);
 		}
 		*/
 	}
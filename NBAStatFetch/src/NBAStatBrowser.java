@@ -1,10 +1,20 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import com.google.gson.Gson;
 
 /**
@@ -12,6 +22,9 @@ import com.google.gson.Gson;
  * 
  * Retrieves individual game data from NBA.com by communicating via Gson
  * utility with internal database
+ * The game logs of the teams are fetched concurrently by a bounded number of
+ * threads, sharing a TokenBucket that limits the request rate, and decoded
+ * row by row as they arrive (see ResultSetReader).
  * 
  * @author Michelle Shu with help from my dad, Yueming Xu
  */
@@ -19,31 +32,109 @@ import com.google.gson.Gson;
 public class NBAStatBrowser {
 
 	static HashMap<String, Game> games;  // hash on Game_ID, each game need to be updated twice
+	static String statsServer = "http://stats.nba.com/stats/";	// replaced by a stub in tests
+	static final int FETCH_THREADS = 6;				// team logs fetched at once
+	static final double REQUESTS_PER_SECOND = 4;	// sustained request rate
+	static final int REQUEST_BURST = 6;				// requests allowed at once
+	static final String HTTP_CACHE_DIR = "data/http-cache";
 
 	public static void main(String[] args) throws FileNotFoundException {
 		String season = "2011-12";  // specify a season to browse and save game stats
 		String outFile = "data/2012-RAW.csv";
 
+		HttpUtil.setCache(HttpCache.forNBAStats(HTTP_CACHE_DIR));
 		games = new HashMap<String, Game>();
 		NBAData teamData = getTeamBaseStats(season);
 		String[] teamIDs = getTeamIDs(teamData);
-		for (String t : teamIDs) {
-			System.out.println("Collect games for team " + t);
-			NBAData gameData = getTeamGameStats(season, t);
-			collectGameStats(gameData);
+		List<String> failed = fetchGameStats(season, teamIDs, FETCH_THREADS,
+				new TokenBucket(REQUESTS_PER_SECOND, REQUEST_BURST));
+		if (!failed.isEmpty()) {
+			// A season missing teams would be written with half-filled games
+			System.out.println("Failed to collect games for teams " + failed +
+					"; " + outFile + " not written, run again to retry");
+			return;
 		}
-		System.out.println("Wrote games for " + teamIDs.length + " teams.");
+		int written = writeGames(outFile);
+		System.out.println("Wrote " + written + " games for " + teamIDs.length +
+				" teams.");
+		System.out.println("Done");
+	}
+
+	/**
+	 * Fetch and collect the game logs of the teams of a season, with at most
+	 * threads requests in flight, each taking a token from limiter first.
+	 * Games are merged into games as the logs arrive.
+	 *
+	 * @return the IDs of the teams whose game logs could not be fetched
+	 */
+	public static List<String> fetchGameStats(final String season,
+			String[] teamIDs, int threads, final TokenBucket limiter) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ArrayList<String> failed = new ArrayList<String>();
+		try {
+			ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (final String t : teamIDs) {
+				tasks.add(new Callable<Boolean>() {
+					public Boolean call() throws InterruptedException {
+						limiter.acquire();
+						System.out.println("Collect games for team " + t);
+						return fetchGameLog(season, t);
+					}
+				});
+			}
+			List<Future<Boolean>> results = pool.invokeAll(tasks);
+			for (int i = 0; i < teamIDs.length; i++) {
+				try {
+					if (!results.get(i).get()) {
+						failed.add(teamIDs[i]);
+					}
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					failed.add(teamIDs[i]);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+		}
+		return failed;
+	}
+
+	/**
+	 * Write the collected games, sorted by date, as a RAW game file.
+	 * Games missing the statistics of a team, whose other team's log could
+	 * not be fetched, are left out and reported.
+	 *
+	 * @return the number of games written
+	 */
+	public static int writeGames(String outFile) throws FileNotFoundException {
 		PrintWriter nbaFile = new PrintWriter(new File(outFile));
-		nbaFile.println(Game.gameHeader());
-		for (Game g : getSortedGameList()) {
-			nbaFile.println(g.toString());
+		ArrayList<String> incomplete = new ArrayList<String>();
+		int written = 0;
+		try {
+			nbaFile.println(Game.gameHeader());
+			for (Game g : getSortedGameList()) {
+				if (!g.hasBothTeams()) {
+					incomplete.add(g.gameId);
+					continue;
+				}
+				nbaFile.println(g.toString());
+				written++;
+			}
+		} finally {
+			nbaFile.close();
 		}
-		nbaFile.close();
-		System.out.println("Done");
+		if (!incomplete.isEmpty()) {
+			System.out.println("Left out " + incomplete.size() +
+					" games missing a team: " + incomplete);
+		}
+		return written;
 	}
 
 	/**
-	 * Sort the collected games in ascending order by game date
+	 * Sort the collected games in ascending order by game date, then by
+	 * Game_ID, so the order does not depend on the order of collection
 	 */
 	public static ArrayList<Game> getSortedGameList() {
 		ArrayList<Game> gameList = new ArrayList<Game>(games.values());
@@ -55,7 +146,7 @@ public class NBAStatBrowser {
 				} else if (g1.gameDate.after(g2.gameDate)) {
 					return 1;
 				} else {
-					return 0;
+					return g1.gameId.compareTo(g2.gameId);
 				}
 			}
 		});
@@ -71,10 +162,9 @@ public class NBAStatBrowser {
 	 * @return NBA league dash team stats
 	 */
 	public static NBAData getTeamBaseStats(String season) {
-		String serverUrl = "http://stats.nba.com/stats/leaguedashteamstats?Season=" + season +
+		String serverUrl = statsServer + "leaguedashteamstats?Season=" + season +
 				"&SeasonType=Regular+Season&MeasureType=Base&PerMode=Totals&PlusMinus=N&PaceAdjust=N&Rank=N&Outcome=&Location=&Month=0&SeasonSegment=&DateFrom=&DateTo=&OpponentTeamID=0&VsConference=&VsDivision=&GameSegment=&Period=0&LastNGames=0&GameScope=&PlayerExperience=&PlayerPosition=&StarterBench=";
-		String resp = HttpUtil.getData(serverUrl);
-		return new Gson().fromJson(resp, NBAData.class);
+		return fetchData(serverUrl);
 	}
 
 	/**
@@ -103,17 +193,161 @@ public class NBAStatBrowser {
 	 * @return NBA team game log
 	 */
 	public static NBAData getTeamGameStats(String season, String teamID) {
-		String serverUrl = "http://stats.nba.com/stats/teamgamelog?Season=" + season +
+		return fetchData(gameLogUrl(season, teamID));
+	}
+
+	static String gameLogUrl(String season, String teamID) {
+		return statsServer + "teamgamelog?Season=" + season +
 				"&SeasonType=Regular+Season&PlayerID=&TeamID=" + teamID;
-		String resp = HttpUtil.getData(serverUrl);
-		return new Gson().fromJson(resp, NBAData.class);
 	}
 
 	/**
-	 * Add or update a game using the NBA game result set
+	 * Browse list of games played by a team in a specified season, and add
+	 * or update the games as the log is decoded, row by row, without
+	 * holding the log as text or as a String[][]
+	 * 
+	 * @return false if the log cannot be fetched or decoded
+	 */
+	public static boolean fetchGameLog(String season, String teamID) {
+		Reader rd = null;
+		try {
+			rd = HttpUtil.openReader(gameLogUrl(season, teamID), null);
+			ResultSetReader.read(rd, new GameLogHandler());
+			return true;
+		} catch (Exception e) {
+			System.out.println("Failed to collect games for team " + teamID +
+					": " + e.getMessage());
+			return false;
+		} finally {
+			if (rd != null) {
+				try {
+					rd.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Add or update a game with the statistics of one of its teams.
+	 * Synchronized, as the logs of several teams are collected at once.
+	 */
+	static synchronized void collectGame(String gameId, Date gameDate,
+			String teamId, boolean isHome, GameStatistics stats) {
+		Game g = games.get(gameId);
+		if (g == null) {
+			g = new Game(gameId, gameDate);
+			games.put(gameId, g);
+		}
+		g.setTeam(isHome, teamId, stats);
+	}
+
+	/**
+	 * GameLogHandler:
+	 * Reads the rows of one team game log into a StatBlock of its own, and
+	 * collects each game as its row is decoded.
+	 */
+	static class GameLogHandler implements ResultSetReader.Handler {
+		private final StatBlock stats = new StatBlock();
+		private final SimpleDateFormat fmt = new SimpleDateFormat("MMM dd, yyyy");
+		private boolean first = true;	// only the first result set has games
+		private int gameIdCol;
+		private int dateCol;
+		private int matchupCol;
+		private int teamIdCol;
+		private int[] statColumns;
+
+		public byte[] columns(String resultSet, String[] headers)
+				throws IOException {
+			byte[] types = new byte[headers.length];
+			if (!first) {
+				return types;
+			}
+			first = false;
+			HashMap<String, Integer> columns = new HashMap<String, Integer>();  // maps column names to column index
+			for (int i = 0; i < headers.length; i++) {
+				columns.put(headers[i], i);
+			}
+			String[] needed = {"Game_ID", "GAME_DATE", "MATCHUP", "Team_ID"};
+			for (String name : needed) {
+				if (!columns.containsKey(name)) {
+					throw new IOException("Game log has no " + name + " column");
+				}
+				types[columns.get(name)] = ResultSetReader.TEXT;
+			}
+			for (String name : GameStatistics.LABELS) {
+				if (!columns.containsKey(name)) {
+					throw new IOException("Game log has no " + name + " column");
+				}
+				types[columns.get(name)] = ResultSetReader.NUMBER;
+			}
+			gameIdCol = columns.get("Game_ID");
+			dateCol = columns.get("GAME_DATE");
+			matchupCol = columns.get("MATCHUP");
+			teamIdCol = columns.get("Team_ID");
+			statColumns = GameStatistics.statColumns(columns);
+			return types;
+		}
+
+		/**
+		 * Collect the game of a row. A null field fails the whole log, rather
+		 * than collecting a game with missing parts or zero statistics.
+		 */
+		public void row(String[] text, double[] numbers) throws IOException {
+			String gameId = text[gameIdCol];
+			String matchup = text[matchupCol];
+			if (gameId == null || matchup == null || text[teamIdCol] == null) {
+				throw new IOException("Game log row without a Game_ID, " +
+						"MATCHUP or Team_ID");
+			}
+			for (int j = 0; j < GameStatistics.STATS; j++) {
+				if (Double.isNaN(numbers[statColumns[j]])) {
+					throw new IOException("Game " + gameId + " has no " +
+							GameStatistics.LABELS[j]);
+				}
+			}
+			Date gameDate;
+			try {
+				gameDate = fmt.parse(text[dateCol]);
+			} catch (Exception e) {
+				throw new IOException("Game " + gameId + " has no valid " +
+						"GAME_DATE: " + text[dateCol]);
+			}
+			boolean isHome = !(matchup.indexOf("@") > 0);
+			GameStatistics teamStats = stats.addRow(matchup.split(" ")[0]);
+			teamStats.read(numbers, statColumns);
+			collectGame(gameId, gameDate, text[teamIdCol], isHome, teamStats);
+		}
+	}
+
+	/**
+	 * Decode the NBA data returned by serverUrl as it is read, without
+	 * holding the response text
+	 * @return the data, or null if it cannot be fetched or decoded
+	 */
+	static NBAData fetchData(String serverUrl) {
+		Reader rd = null;
+		try {
+			rd = HttpUtil.openReader(serverUrl, null);
+			return new Gson().fromJson(rd, NBAData.class);
+		} catch (Exception e) {
+			System.out.println("Failed to get data from HTTP request: " + e.getMessage());
+			return null;
+		} finally {
+			if (rd != null) {
+				try {
+					rd.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Add or update a game using the NBA game result set.
+	 * Synchronized, as the logs of several teams are collected at once and
+	 * each game is in the logs of both of its teams.
 	 * @param data NBA team game log
 	 */
-	public static void collectGameStats(NBAData data) {
+	public static synchronized void collectGameStats(NBAData data) {
 		ResultSet[] resultSets = data.getResultSets();
 		String[] headers = resultSets[0].getHeaders();  // column names
 		String[][] rowSet = resultSets[0].getRowSet();  // result set contains list of games
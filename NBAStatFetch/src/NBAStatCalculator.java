@@ -7,18 +7,22 @@
  * Last Updated March 1, 2013
  */
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class NBAStatCalculator {
 	static HashMap<String, Team> teams;
+	static Season current;	// season of readGameFile and writeGameStats
 	static final int EARLY_SEASON = 10;	// Number of early season games to
 										// exclude from averages.
 
@@ -29,114 +33,249 @@ public class NBAStatCalculator {
 	/**
 	 * Read NBA game records of a specified season, 
 	 * and store the game in both home-team and road-team records.
+	 * Rows that cannot be read are reported with their line and skipped.
 	 */
 	static void readGameFile(String gameFile) {
-		BufferedReader reader = null;
-		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
+		current = new Season(gameFile);
+		current.read();
+		teams = current.teams;
+	}
+
+	/**
+	 * Write the season stats (averages of previous games in season) to file.
+	 */
+	static void writeGameStats(String statFile) {
+		writeGameStats(statFile, null);
+	}
+
+	/**
+	 * Write the season stats to file, followed on each line by the recent
+	 * form features (see TeamForm) of the home team and then the road team.
+	 * Games for which either team has no form features yet are left out.
+	 * If form is null, only the season stats are written.
+	 */
+	static void writeGameStats(String statFile, TeamForm form) {
+		for (Team team : current.teams.values()) {
+			current.calcTeamStats(team, form);
+		}
+		current.write(statFile, form);
+	}
+
+	/**
+	 * Read each of gameFiles and write its season stats to the matching
+	 * file of statFiles, as writeGameStats does. Seasons are independent and
+	 * so are the teams of a season, so the work is done in three parallel
+	 * phases on a pool of at most threads threads: read every season, then
+	 * calculate the stats of every team of every season, then write every
+	 * season. Each season writes its games in date order, so the files do
+	 * not depend on the number of threads. If statFiles is null nothing is
+	 * written, and the seasons are only returned.
+	 *
+	 * @return the processed seasons, in the order of gameFiles
+	 */
+	static ArrayList<Season> processSeasons(List<String> gameFiles, List<String> statFiles,
+			final TeamForm form, int threads) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
 		try {
-			teams = new HashMap<String, Team>();
-			reader = new BufferedReader(new FileReader(gameFile));
-			String line;
-			
-			// If line is a header, store the labels of the header.
-			boolean header = true;
-			HashMap<String, Integer> homeHeader = new HashMap<String, Integer>();
-			HashMap<String, Integer> roadHeader = new HashMap<String, Integer>();
-			while ((line = reader.readLine()) != null) {
-				String[] tokens = line.split(",");
-				if (tokens.length >= 34) {
-					if (header) { 
-						header = false;
-						for (int i = 3; i < 18; i++) {
-							homeHeader.put(tokens[i], i);
-							roadHeader.put(tokens[i + 16], i + 16);
-						}
-						continue;
+			final ArrayList<Season> seasons = new ArrayList<Season>();
+			ArrayList<Callable<Object>> reads = new ArrayList<Callable<Object>>();
+			for (String gameFile : gameFiles) {
+				final Season season = new Season(gameFile);
+				seasons.add(season);
+				reads.add(new Callable<Object>() {
+					public Object call() {
+						season.read();
+						return null;
 					}
-					try {
-						// Create a record of the game.
-						Date dt = fmt.parse(tokens[1]);
-						Game game = new Game(dt);
-						game.updateGame(homeHeader, tokens, true);
-						game.updateGame(roadHeader, tokens, false);
-
-						// Add the game to the road team's record.
-						String roadTeamName = game.getRoadTeam();
-						Team roadTeam = teams.get(roadTeamName);
-						if (null == roadTeam) {
-							roadTeam = new Team(roadTeamName);
-							teams.put(roadTeamName, roadTeam);
-						}
-						roadTeam.addRoadGame(game);
-
-						// Add the game to the home team's record.
-						String homeTeamName = game.getHomeTeam();
-						Team homeTeam = teams.get(homeTeamName);
-						if (null == homeTeam) {
-							homeTeam = new Team(homeTeamName);
-							teams.put(homeTeamName, homeTeam);
+				});
+			}
+			runAll(pool, reads);
+
+			ArrayList<Callable<Object>> calcs = new ArrayList<Callable<Object>>();
+			for (final Season season : seasons) {
+				for (final Team team : season.teams.values()) {
+					calcs.add(new Callable<Object>() {
+						public Object call() {
+							season.calcTeamStats(team, form);
+							return null;
 						}
-						homeTeam.addHomeGame(game);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+					});
 				}
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			runAll(pool, calcs);
+
+			ArrayList<Callable<Object>> writes = new ArrayList<Callable<Object>>();
+			for (int s = 0; statFiles != null && s < seasons.size(); s++) {
+				final Season season = seasons.get(s);
+				final String statFile = statFiles.get(s);
+				if (season.teams.isEmpty()) {
+					continue;
+				}
+				writes.add(new Callable<Object>() {
+					public Object call() {
+						season.write(statFile, form);
+						return null;
+					}
+				});
+			}
+			runAll(pool, writes);
+			return seasons;
 		} finally {
-			if (reader != null) {
+			pool.shutdown();
+		}
+	}
+
+	/** Run tasks on pool and wait for all of them, reporting failures */
+	private static void runAll(ExecutorService pool,
+			List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> result : pool.invokeAll(tasks)) {
 				try {
-					reader.close();
-				} catch (Exception e) {}
+					result.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
 	/**
-	 * Write the season stats (averages of previous games in season) to file.
+	 * Season:
+	 * The games of one season and the records of its teams. Each season owns
+	 * its team map and statistics, so several seasons can be processed at
+	 * once. After read, calcTeamStats may be called for different teams
+	 * concurrently: a team only sets the averages and form features of its
+	 * own side of each of its games.
 	 */
-	static void writeGameStats(String statFile) {
-		// Calculate statistics averages for each team's home and road games.
-		for (Team team : teams.values()) {
+	static public class Season {
+		String gameFile;
+		HashMap<String, Team> teams;
+		ArrayList<Game> games;	// all games, in file (date) order
+		StatBlock stats;		// statistics of games, two rows per game
+
+		/** Constructor */
+		public Season(String gameFile) {
+			this.gameFile = gameFile;
+			teams = new HashMap<String, Team>();
+			games = new ArrayList<Game>();
+			stats = new StatBlock();
+		}
+
+		/** Read the RAW game file of the season */
+		public void read() {
+			final Calendar calendar = Calendar.getInstance();
+
+			// If line is a header, store the labels of the header.
+			final HashMap<String, Integer> homeHeader = new HashMap<String, Integer>();
+			final HashMap<String, Integer> roadHeader = new HashMap<String, Integer>();
+			CsvTokenizer.Handler handler = new CsvTokenizer.Handler() {
+				boolean header = true;
+				int homeName;
+				int roadName;
+				int[] homeColumns;
+				int[] roadColumns;
+
+				public void row(CsvTokenizer row)
+						throws CsvTokenizer.FormatException {
+					if (row.getFieldCount() < 34) {
+						return;
+					}
+					if (header) { 
+						header = false;
+						for (int i = 3; i < 18; i++) {
+							homeHeader.put(row.getString(i), i);
+							roadHeader.put(row.getString(i + 16), i + 16);
+						}
+						homeName = homeHeader.get("Team");
+						roadName = roadHeader.get("Team");
+						homeColumns = GameStatistics.statColumns(homeHeader);
+						roadColumns = GameStatistics.statColumns(roadHeader);
+						return;
+					}
+
+					// Create a record of the game.
+					int date = row.getDate(1);
+					calendar.clear();
+					calendar.set(date / 10000, (date / 100) % 100 - 1, date % 100);
+					Game game = new Game(calendar.getTime());
+					game.gameId = row.getString(0);
+					GameStatistics homeStats = stats.addRow(row.getString(homeName));
+					homeStats.read(row, homeColumns);
+					GameStatistics roadStats = stats.addRow(row.getString(roadName));
+					roadStats.read(row, roadColumns);
+					game.setStats(homeStats, true);
+					game.setStats(roadStats, false);
+					games.add(game);
+
+					// Add the game to the road team's record.
+					getTeam(game.getRoadTeam()).addRoadGame(game);
+
+					// Add the game to the home team's record.
+					getTeam(game.getHomeTeam()).addHomeGame(game);
+				}
+
+				public void malformed(CsvTokenizer.FormatException e) {
+					System.err.println(gameFile + ": " + e.getMessage());
+				}
+			};
+
+			try {
+				new CsvTokenizer(',').parse(gameFile, handler);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		/** All games of the season, in file (date) order */
+		public ArrayList<Game> getGames() {
+			return games;
+		}
+
+		private Team getTeam(String name) {
+			Team team = teams.get(name);
+			if (null == team) {
+				team = new Team(name);
+				teams.put(name, team);
+			}
+			return team;
+		}
+
+		/**
+		 * Calculate statistics averages for the team's home and road games,
+		 * and its form features if form is not null.
+		 */
+		public void calcTeamStats(Team team, TeamForm form) {
 			team.calcHomeStats();
 			team.calcRoadStats();
+			if (form != null) {
+				form.compute(team.name, team.getGames());
+			}
 		}
 
-		// Write out the statistics by iterating through home games.
+		/**
+		 * Write the stats of the season's games, in date order, once
+		 * calcTeamStats has been called for every team.
+		 */
+		public void write(String statFile, TeamForm form) {
+			writeGames(games, statFile, false, form != null);
+		}
+	}
+
+	/**
+	 * Write the stats of those of games that have features (see
+	 * Game.hasFeatures) to statFile, one line per game, replacing the file
+	 * or appending to it.
+	 */
+	static void writeGames(List<Game> games, String statFile, boolean append,
+			boolean withForm) {
 		PrintWriter out = null;
 		try {
-			out = new PrintWriter(new File(statFile));
-			for (Team team : teams.values()) {
-				for (Game g : team.getHomeGames()) {
-					if (g.seasonHomeAvg != null && g.seasonRoadAvg != null) {
-						StringBuffer buff = new StringBuffer();
-						
-						/* Represent each game as a line of comma-separated values.
-						 * Add the major feature statistics of team history for:
-						 * 1. Home team history
-						 * 2. Home team opponent history
-						 * 3. Road team history
-						 * 4. Road team opponent history
-						 */
-						buff.append(g.seasonHomeAvg.getMajorTeamStats()).append(",");
-						buff.append(g.seasonHomeOppAvg.getMajorTeamStats()).append(",");
-						buff.append(g.seasonRoadAvg.getMajorTeamStats()).append(",");
-						buff.append(g.seasonRoadOppAvg.getMajorTeamStats()).append(",");
-						
-						/* Then add the two betting features: The difference in
-						 * scores for the two teams for Against the Spread and the
-						 * sum of the two team's scores for Over/Under.
-						 */
-						buff.append(g.homeStats.getTotalScore() - 
-								g.roadStats.getTotalScore()).append(",");
-						buff.append(g.homeStats.getTotalScore() + 
-								g.roadStats.getTotalScore()).append(",");
-						buff.append(g.getHomeTeam()).append(",");
-						buff.append(g.getRoadTeam()).append(",");
-						buff.append(g.gameDate.toString());
-						out.println(buff.toString());
-					}
+			out = new PrintWriter(new FileWriter(statFile, append));
+			for (Game g : games) {
+				if (g.hasFeatures(withForm)) {
+					out.println(formatGame(g, withForm));
 				}
 			}
 		} catch (Exception e) {
@@ -148,6 +287,42 @@ public class NBAStatCalculator {
 		}
 	}
 
+	/** The line of comma-separated values of a game in the SEASON files */
+	static String formatGame(Game g, boolean withForm) {
+		StringBuffer buff = new StringBuffer();
+		
+		/* Represent each game as a line of comma-separated values.
+		 * Add the major feature statistics of team history for:
+		 * 1. Home team history
+		 * 2. Home team opponent history
+		 * 3. Road team history
+		 * 4. Road team opponent history
+		 */
+		buff.append(g.seasonHomeAvg.getMajorTeamStats()).append(",");
+		buff.append(g.seasonHomeOppAvg.getMajorTeamStats()).append(",");
+		buff.append(g.seasonRoadAvg.getMajorTeamStats()).append(",");
+		buff.append(g.seasonRoadOppAvg.getMajorTeamStats()).append(",");
+		
+		/* Then add the two betting features: The difference in
+		 * scores for the two teams for Against the Spread and the
+		 * sum of the two team's scores for Over/Under.
+		 */
+		buff.append(g.getSpread()).append(",");
+		buff.append(g.getTotal()).append(",");
+		buff.append(g.getHomeTeam()).append(",");
+		buff.append(g.getRoadTeam()).append(",");
+		buff.append(g.gameDate.toString());
+		if (withForm) {
+			for (double x : g.homeForm) {
+				buff.append(",").append(x);
+			}
+			for (double x : g.roadForm) {
+				buff.append(",").append(x);
+			}
+		}
+		return buff.toString();
+	}
+
 	/**
 	 * Team:
 	 * This inner class compartmentalizes the game history (home and road games)
@@ -157,27 +332,37 @@ public class NBAStatCalculator {
 		String name;
 		ArrayList<Game> homeGames;
 		ArrayList<Game> roadGames;
+		ArrayList<Game> games;	// home and road games, in file (date) order
+		StatBlock averages;		// rows of the season averages set in games
 
 		/** Constructor */
 		public Team(String name) {
 			this.name = name;
 			homeGames = new ArrayList<Game>();
 			roadGames = new ArrayList<Game>();
+			games = new ArrayList<Game>();
+			averages = new StatBlock();
 		}
 
 		/** Getters and Setters */
 		public void addHomeGame(Game game) {
 			homeGames.add(game);
+			games.add(game);
 		}
 
 		public void addRoadGame(Game game) {
 			roadGames.add(game);
+			games.add(game);
 		}
 
 		public ArrayList<Game> getHomeGames() {
 			return homeGames;
 		}
 
+		public ArrayList<Game> getGames() {
+			return games;
+		}
+
 		public int getGamesPlayed() {
 			return homeGames.size() + roadGames.size();
 		}
@@ -197,8 +382,8 @@ public class NBAStatCalculator {
 
 				Game nextGame = homeGames.get(i+1);
 				if (gamesPlayed > EARLY_SEASON) {
-					nextGame.setSeasonHomeAvg(seasonTotal.calcAverage(gamesPlayed));
-					nextGame.setSeasonHomeOppAvg(seasonOppTotal.calcAverage(gamesPlayed));
+					nextGame.setSeasonHomeAvg(seasonTotal.calcAverage(gamesPlayed, averages));
+					nextGame.setSeasonHomeOppAvg(seasonOppTotal.calcAverage(gamesPlayed, averages));
 				}
 			}
 		}
@@ -217,8 +402,8 @@ public class NBAStatCalculator {
 
 				Game nextGame = roadGames.get(i+1);
 				if (gamesPlayed > EARLY_SEASON) {
-					nextGame.setSeasonRoadAvg(seasonTotal.calcAverage(gamesPlayed));
-					nextGame.setSeasonRoadOppAvg(seasonOppTotal.calcAverage(gamesPlayed));
+					nextGame.setSeasonRoadAvg(seasonTotal.calcAverage(gamesPlayed, averages));
+					nextGame.setSeasonRoadOppAvg(seasonOppTotal.calcAverage(gamesPlayed, averages));
 				}
 			}
 		}
@@ -226,11 +411,13 @@ public class NBAStatCalculator {
 	}
 
 	public static void main(String args[]) {
+		ArrayList<String> gameFiles = new ArrayList<String>();
+		ArrayList<String> statFiles = new ArrayList<String>();
 		for (int season = 2012; season < 2013; season++) {
-			readGameFile("data/" + season + "-RAW.csv");
-			if (getTeamCount() > 0) {
-				writeGameStats("data/" + season + "-SEASON-TEST.csv");
-			}
+			gameFiles.add("data/" + season + "-RAW.csv");
+			statFiles.add("data/" + season + "-SEASON-TEST.csv");
 		}
+		processSeasons(gameFiles, statFiles, null,
+				Runtime.getRuntime().availableProcessors());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * ResultSetReader.java
+ * Streaming decoder for stats.nba.com responses,
+ * 		{"resource": ..., "parameters": {...},
+ * 		 "resultSets": [{"name": ..., "headers": [...], "rowSet": [[...], ...]}]}
+ * built on Gson's JsonReader. Instead of materializing rowSet as a String[][]
+ * (see NBAStatBrowser.ResultSet), it reads the headers of each result set,
+ * asks the handler which columns it wants, then walks rowSet one row at a
+ * time. Wanted numeric columns are parsed straight into a double[] and
+ * wanted text columns into a String[], both reused for every row; other
+ * columns are skipped. Memory use is thus independent of the row count,
+ * which matters for player-level logs.
+ *
+ * Headers must come before rowSet in each result set, as stats.nba.com
+ * sends them.
+ */
+
+public class ResultSetReader {
+	/* How the handler wants each column read */
+	public static final byte SKIP = 0;
+	public static final byte TEXT = 1;
+	public static final byte NUMBER = 2;
+
+	/** Receives the result sets of a response */
+	public interface Handler {
+		/**
+		 * Called with the name and column names of a result set before its
+		 * rows; return SKIP, TEXT or NUMBER for each column.
+		 */
+		byte[] columns(String resultSet, String[] headers) throws IOException;
+
+		/**
+		 * Called for each row. text[c] is set for TEXT columns and numbers[c]
+		 * for NUMBER columns (NaN for null); both arrays are reused.
+		 */
+		void row(String[] text, double[] numbers) throws IOException;
+	}
+
+	/** Decode a response, calling handler for every result set and row */
+	public static void read(Reader in, Handler handler) throws IOException {
+		JsonReader json = new JsonReader(in);
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			if ("resultSets".equals(name)) {
+				json.beginArray();
+				while (json.hasNext()) {
+					readResultSet(json, handler);
+				}
+				json.endArray();
+			} else if ("resultSet".equals(name)) {
+				readResultSet(json, handler);	// single result set responses
+			} else {
+				json.skipValue();
+			}
+		}
+		json.endObject();
+	}
+
+	private static void readResultSet(JsonReader json, Handler handler)
+			throws IOException {
+		String setName = null;
+		byte[] columns = null;
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			if ("name".equals(name)) {
+				setName = json.nextString();
+			} else if ("headers".equals(name)) {
+				ArrayList<String> headers = new ArrayList<String>();
+				json.beginArray();
+				while (json.hasNext()) {
+					headers.add(json.nextString());
+				}
+				json.endArray();
+				columns = handler.columns(setName,
+						headers.toArray(new String[headers.size()]));
+			} else if ("rowSet".equals(name)) {
+				if (columns == null) {
+					throw new IOException("rowSet before headers in result set " +
+							setName);
+				}
+				readRows(json, columns, handler);
+			} else {
+				json.skipValue();
+			}
+		}
+		json.endObject();
+	}
+
+	private static void readRows(JsonReader json, byte[] columns,
+			Handler handler) throws IOException {
+		String[] text = new String[columns.length];
+		double[] numbers = new double[columns.length];
+		json.beginArray();
+		while (json.hasNext()) {
+			Arrays.fill(text, null);
+			Arrays.fill(numbers, Double.NaN);
+			json.beginArray();
+			for (int c = 0; json.hasNext(); c++) {
+				byte type = (c < columns.length) ? columns[c] : SKIP;
+				if (type == SKIP) {
+					json.skipValue();
+				} else if (json.peek() == JsonToken.NULL) {
+					json.nextNull();
+				} else if (type == NUMBER) {
+					numbers[c] = json.nextDouble();
+				} else {
+					text[c] = json.nextString();
+				}
+			}
+			json.endArray();
+			handler.row(text, numbers);
+		}
+		json.endArray();
+	}
+}
@@ -0,0 +1,205 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * ScoresStub.java
+ * Offline stand-in for the databasebasketball.com daily scores pages,
+ * serving canned pages from a directory through a StubServer:
+ * 		<dir>/<yyyy-MM-dd>.html
+ * A date without a page gets a page with no games, as a day without games
+ * does. Canned pages can be made from a RAW game file (see record), so a
+ * crawl can be run, failed (see StubServer.setFailEvery) and resumed
+ * without the network.
+ *
+ * Run from the NBAStatFetch directory to compare a serial crawl with a
+ * concurrent one that is failed and then resumed:
+ * 		java ScoresStub RAW-file [latencyMillis] [threads] [failEvery]
+ */
+
+public class ScoresStub {
+	public static final String PAGE = "dailyscores.htm";
+
+	/** Start a stub serving the canned pages in dir on a free port */
+	public static StubServer start(final String dir) throws IOException {
+		StubServer stub = new StubServer(0, "text/html",
+				new StubServer.Responder() {
+			public byte[] respond(String path, String query, byte[] body)
+					throws IOException {
+				if (!path.endsWith("/" + PAGE)) {
+					return null;
+				}
+				String form = new String(body, "UTF-8");
+				String date = String.format("%04d-%02d-%02d",
+						Integer.parseInt(StatsStub.queryParameter(form, "y")),
+						Integer.parseInt(StatsStub.queryParameter(form, "m")),
+						Integer.parseInt(StatsStub.queryParameter(form, "d")));
+				File file = new File(dir, date + NBADataParser.PAGE_SUFFIX);
+				if (!file.isFile()) {
+					return page(new ArrayList<String[]>()).getBytes("UTF-8");
+				}
+				return StubServer.readAll(new FileInputStream(file));
+			}
+		});
+		stub.start();
+		return stub;
+	}
+
+	/** A daily scores page of games given as {road, score, home, score} */
+	static String page(List<String[]> games) {
+		StringBuffer html = new StringBuffer();
+		html.append("<html><body>\n<form method=\"post\" action=\"dailyscores.htm\">");
+		html.append("<input type=\"submit\" name=\"submit\" value=\"Get Scores\">");
+		html.append("</form>\n<table>\n");
+		for (String[] g : games) {
+			html.append("<tr><td>").append(teamLink(g[0])).append("</td>");
+			html.append("<td>").append(g[1]).append("</td><td>at</td>");
+			html.append("<td>").append(teamLink(g[2])).append("</td>");
+			html.append("<td>").append(g[3]).append("</td></tr>\n");
+		}
+		return html.append("</table>\n</body></html>\n").toString();
+	}
+
+	private static String teamLink(String team) {
+		return "<a href=\"/teams/teamyear.htm?tm=" + team + "&lg=n\">" + team +
+				"</a>";
+	}
+
+	/**
+	 * Read the games of a RAW game file (as written by NBAStatBrowser) by
+	 * date, each as {road, score, home, score}
+	 */
+	static TreeMap<String, List<String[]>> readGames(String rawFile)
+			throws IOException {
+		TreeMap<String, List<String[]>> games = new TreeMap<String, List<String[]>>();
+		BufferedReader in = new BufferedReader(new FileReader(rawFile));
+		try {
+			List<String> header = Arrays.asList(in.readLine().split(","));
+			int home = header.indexOf("HomeTeamId") + 1;	// Team, then PTS
+			int road = header.indexOf("RoadTeamId") + 1;
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] row = line.split(",");
+				if (!games.containsKey(row[1])) {
+					games.put(row[1], new ArrayList<String[]>());
+				}
+				games.get(row[1]).add(new String[] {row[road], row[road + 1],
+						row[home], row[home + 1]});
+			}
+		} finally {
+			in.close();
+		}
+		return games;
+	}
+
+	/** Write the pages databasebasketball.com would give for the games of a
+	 *  RAW game file into dir */
+	public static void record(String rawFile, String dir) throws IOException {
+		new File(dir).mkdirs();
+		TreeMap<String, List<String[]>> games = readGames(rawFile);
+		for (String date : games.keySet()) {
+			Writer out = new OutputStreamWriter(new FileOutputStream(
+					new File(dir, date + NBADataParser.PAGE_SUFFIX)), "UTF-8");
+			try {
+				out.write(page(games.get(date)));
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String rawFile = (args.length > 0) ? args[0] : "data/2012-RAW.csv";
+		long latency = (args.length > 1) ? Long.parseLong(args[1]) : 20;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) :
+				NBADataParser.CRAWL_THREADS;
+		int failEvery = (args.length > 3) ? Integer.parseInt(args[3]) : 7;
+
+		File dir = File.createTempFile("scores-stub", "");
+		dir.delete();
+		record(rawFile, new File(dir, "pages").getPath());
+		StubServer stub = start(new File(dir, "pages").getPath());
+		stub.setLatency(latency);
+		NBADataParser.scoresServer = "http://localhost:" + stub.getPort() +
+				"/boxscores/" + PAGE + "?lg=N";
+
+		// Every date of the season, from the day before its first game
+		TreeMap<String, List<String[]>> games = readGames(rawFile);
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
+		long first = fmt.parse(games.firstKey()).getTime();
+		long last = fmt.parse(games.lastKey()).getTime();
+		int days = (int) ((last - first) / (24 * 60 * 60 * 1000L)) + 2;
+		List<String> dates = NBADataParser.nbaDates(
+				fmt.format(first - 24 * 60 * 60 * 1000L), days);
+
+		// Serial: one date at a time, as the crawl used to be
+		long start = System.nanoTime();
+		NBADataCrawler serial = new NBADataCrawler(
+				new File(dir, "serial").getPath(), 1, new TokenBucket(1000, 1));
+		serial.setUnitDates(dates.size());
+		List<String> serialMissing = serial.crawl(dates);
+		long serialMillis = (System.nanoTime() - start) / 1000000;
+		File serialFile = new File(dir, "serial.txt");
+		serial.merge(dates, serialFile.getPath());
+
+		// Concurrent, with every failEvery-th request failing and no retries
+		String archive = new File(dir, "concurrent").getPath();
+		stub.setFailEvery(failEvery);
+		int before = stub.getHits();
+		start = System.nanoTime();
+		NBADataCrawler failing = new NBADataCrawler(archive, threads,
+				new TokenBucket(1000, threads));
+		failing.setRetries(0);
+		List<String> missing = failing.crawl(dates);
+		long failingMillis = (System.nanoTime() - start) / 1000000;
+		int failingHits = stub.getHits() - before;
+		int failures = stub.getFailures();
+
+		// Resume from the journal, as a new run would
+		stub.setFailEvery(0);
+		before = stub.getHits();
+		start = System.nanoTime();
+		NBADataCrawler resumed = new NBADataCrawler(archive, threads,
+				new TokenBucket(1000, threads));
+		List<String> resumedMissing = resumed.crawl(dates);
+		long resumedMillis = (System.nanoTime() - start) / 1000000;
+		int resumedHits = stub.getHits() - before;
+		File resumedFile = new File(dir, "resumed.txt");
+		resumed.merge(dates, resumedFile.getPath());
+		stub.stop();
+
+		ArrayList<String> expected = new ArrayList<String>();
+		for (String date : games.keySet()) {
+			for (String[] g : games.get(date)) {
+				expected.add(date + "," + g[0] + "," + g[1] + "," + g[2] + "," +
+						g[3]);
+			}
+		}
+		List<String> serialLines = StatsStub.readLines(serialFile.getPath());
+		List<String> resumedLines = StatsStub.readLines(resumedFile.getPath());
+		System.out.println("Latency " + latency + " ms, " + dates.size() +
+				" dates");
+		System.out.println("Serial:   " + serialMillis + " ms, " +
+				serialMissing.size() + " dates missing");
+		System.out.println("Failing:  " + failingMillis + " ms (" + threads +
+				" threads), " + failingHits + " requests, " + failures +
+				" failed, " + missing.size() + " dates missing");
+		System.out.println("Resumed:  " + resumedMillis + " ms, " + resumedHits +
+				" requests, " + resumedMissing.size() + " dates missing");
+		System.out.println("Resumed output " +
+				(resumedLines.equals(serialLines) ? "matches" : "DIFFERS from") +
+				" serial output, which " +
+				(serialLines.equals(expected) ? "has" : "DOES NOT have") +
+				" the games of " + rawFile + " in date order");
+	}
+}
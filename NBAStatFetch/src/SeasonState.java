@@ -0,0 +1,345 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * SeasonState.java
+ * Running per-team totals of a season, so the season stats of new games can
+ * be calculated without re-reading the games before them. For each team
+ * the state keeps the totals and counts of its home and road games (and
+ * of their opponents), from which NBAStatCalculator.Team takes its season
+ * averages, and optionally the TeamForm.State of the team.
+ *
+ * append ingests new games: each game gets the features it would get in a
+ * full recompute, from the state of its two teams only, and then updates
+ * those two teams. Games must be appended in date order, so the features of
+ * earlier games never change and only rows of the new games are written.
+ * The IDs of the games of the latest date are kept as well, so games of
+ * that date that arrive in a later run (e.g. late games) are still
+ * appended, once.
+ *
+ * The state is saved to a small binary file between runs (big-endian, as
+ * written by DataOutputStream):
+ * 		int		MAGIC, VERSION
+ * 		long	date of the latest game appended
+ * 		int		number of games of that date, then their GameIds (UTF)
+ * 		boolean	form present, then the TeamForm configuration
+ * 		int		number of teams, then per team (by name): name (UTF),
+ * 				home and road game counts, home, home opponent, road and
+ * 				road opponent totals (STATS ints each), TeamForm.State
+ *
+ * To use (nightly, with a RAW file holding at least the new games):
+ * 		java SeasonState state-file RAW-file SEASON-file [full-RAW-file]
+ * The first run, with no state file, builds the state from the whole RAW
+ * file and writes the whole SEASON file. Later runs append the games of
+ * RAW-file not in the state yet to SEASON-file. If full-RAW-file is given,
+ * the state is then checked against a full recompute from it.
+ */
+
+public class SeasonState {
+	public static final int MAGIC = 0x4E424153;	// "NBAS"
+	public static final int VERSION = 2;	// 1 had no GameIds of lastDate
+
+	private final TeamForm form;	// null for the season averages only
+	private final TreeMap<String, TeamState> teams;
+	private Date lastDate;			// date of the latest game appended
+	private final TreeSet<String> lastIds;	// GameIds of the games of lastDate
+
+	/**
+	 * TeamState:
+	 * The totals of the home and road games of one team before its next game.
+	 */
+	static class TeamState {
+		int homeGames;
+		int roadGames;
+		final GameStatistics homeTotal;
+		final GameStatistics homeOppTotal;
+		final GameStatistics roadTotal;
+		final GameStatistics roadOppTotal;
+		final TeamForm.State form;
+
+		TeamState(TeamForm form) {
+			StatBlock block = new StatBlock();
+			homeTotal = block.addRow(null);
+			homeOppTotal = block.addRow(null);
+			roadTotal = block.addRow(null);
+			roadOppTotal = block.addRow(null);
+			this.form = (form == null) ? null : form.newState();
+		}
+	}
+
+	/** Constructor - State of a season with no games yet */
+	public SeasonState(TeamForm form) {
+		this.form = form;
+		this.teams = new TreeMap<String, TeamState>();
+		this.lastIds = new TreeSet<String>();
+	}
+
+	public TeamForm getForm() {
+		return form;
+	}
+
+	/** Date of the latest game appended, or null if there is none */
+	public Date getLastDate() {
+		return lastDate;
+	}
+
+	/**
+	 * Full recompute: the state after all the games of a RAW file.
+	 * The games, with their features set, are added to games if it is not
+	 * null.
+	 */
+	public static SeasonState build(String rawFile, TeamForm form,
+			List<Game> games) {
+		SeasonState state = new SeasonState(form);
+		List<Game> appended = state.append(rawFile);
+		if (games != null) {
+			games.addAll(appended);
+		}
+		return state;
+	}
+
+	/**
+	 * Append the games of a RAW file that are not in the state yet: games
+	 * newer than the latest date appended so far, and games of that date
+	 * whose GameId has not been appended. Older games are assumed to be in
+	 * the state already.
+	 *
+	 * @return the appended games, with their features set
+	 */
+	public List<Game> append(String rawFile) {
+		NBAStatCalculator.Season season = new NBAStatCalculator.Season(rawFile);
+		season.read();
+		ArrayList<Game> newGames = new ArrayList<Game>();
+		for (Game g : season.getGames()) {
+			if (lastDate == null || g.gameDate.after(lastDate) ||
+					(g.gameDate.equals(lastDate) && !lastIds.contains(g.gameId))) {
+				newGames.add(g);
+			}
+		}
+		append(newGames);
+		return newGames;
+	}
+
+	/**
+	 * Append games, which must be in date order, not older than the
+	 * latest game appended and not appended before, setting their features
+	 * as a full recompute would. Only the states of the games' teams change.
+	 */
+	public void append(List<Game> games) {
+		for (Game g : games) {
+			if (lastDate != null && g.gameDate.before(lastDate)) {
+				throw new IllegalArgumentException("Game of " + g.gameDate +
+						" is older than the state (" + lastDate +
+						"); recompute the season instead");
+			}
+			if (g.gameDate.equals(lastDate) && lastIds.contains(g.gameId)) {
+				throw new IllegalArgumentException("Game " + g.gameId +
+						" is already in the state");
+			}
+			TeamState home = getTeam(g.getHomeTeam());
+			TeamState road = getTeam(g.getRoadTeam());
+
+			// Features from the games before g, as in Team.calcHomeStats
+			// and Team.calcRoadStats
+			if (home.homeGames > NBAStatCalculator.EARLY_SEASON) {
+				g.setSeasonHomeAvg(home.homeTotal.calcAverage(home.homeGames));
+				g.setSeasonHomeOppAvg(home.homeOppTotal.calcAverage(home.homeGames));
+			}
+			if (road.roadGames > NBAStatCalculator.EARLY_SEASON) {
+				g.setSeasonRoadAvg(road.roadTotal.calcAverage(road.roadGames));
+				g.setSeasonRoadOppAvg(road.roadOppTotal.calcAverage(road.roadGames));
+			}
+			if (form != null) {
+				double[] homeForm = home.form.features();
+				if (homeForm != null) {
+					g.setForm(true, homeForm);
+				}
+				double[] roadForm = road.form.features();
+				if (roadForm != null) {
+					g.setForm(false, roadForm);
+				}
+			}
+
+			// Then add g to the two teams
+			home.homeTotal.addStats(g, true);
+			home.homeOppTotal.addStats(g, false);
+			home.homeGames++;
+			road.roadTotal.addStats(g, false);
+			road.roadOppTotal.addStats(g, true);
+			road.roadGames++;
+			if (form != null) {
+				home.form.add(g.homeStats, g.roadStats);
+				road.form.add(g.roadStats, g.homeStats);
+			}
+			if (!g.gameDate.equals(lastDate)) {
+				lastIds.clear();
+			}
+			lastDate = g.gameDate;
+			lastIds.add(g.gameId);
+		}
+	}
+
+	private TeamState getTeam(String name) {
+		TeamState team = teams.get(name);
+		if (null == team) {
+			team = new TeamState(form);
+			teams.put(name, team);
+		}
+		return team;
+	}
+
+	/** Save the state to a file */
+	public void save(String path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path)));
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Load a state saved by save */
+	public static SeasonState load(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(path)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(path + " is not a season state file");
+			}
+			int version = in.readInt();
+			if (version != VERSION && version != 1) {
+				throw new IOException(path + " has unsupported version " +
+						version);
+			}
+			long last = in.readLong();
+			ArrayList<String> ids = new ArrayList<String>();
+			int idCount = (version == 1) ? 0 : in.readInt();
+			for (int i = 0; i < idCount; i++) {
+				ids.add(in.readUTF());
+			}
+			TeamForm form = in.readBoolean() ? TeamForm.read(in) : null;
+			SeasonState state = new SeasonState(form);
+			state.lastDate = (last == Long.MIN_VALUE) ? null : new Date(last);
+			state.lastIds.addAll(ids);
+			int teamCount = in.readInt();
+			for (int t = 0; t < teamCount; t++) {
+				TeamState team = state.getTeam(in.readUTF());
+				team.homeGames = in.readInt();
+				team.roadGames = in.readInt();
+				readStats(in, team.homeTotal);
+				readStats(in, team.homeOppTotal);
+				readStats(in, team.roadTotal);
+				readStats(in, team.roadOppTotal);
+				if (form != null) {
+					team.form.read(in);
+				}
+			}
+			return state;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong((lastDate == null) ? Long.MIN_VALUE : lastDate.getTime());
+		out.writeInt(lastIds.size());
+		for (String id : lastIds) {
+			out.writeUTF(id);
+		}
+		out.writeBoolean(form != null);
+		if (form != null) {
+			form.write(out);
+		}
+		out.writeInt(teams.size());
+		for (Map.Entry<String, TeamState> entry : teams.entrySet()) {
+			TeamState team = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeInt(team.homeGames);
+			out.writeInt(team.roadGames);
+			writeStats(out, team.homeTotal);
+			writeStats(out, team.homeOppTotal);
+			writeStats(out, team.roadTotal);
+			writeStats(out, team.roadOppTotal);
+			if (form != null) {
+				team.form.write(out);
+			}
+		}
+	}
+
+	/**
+	 * Consistency check: true if this state holds exactly the same totals
+	 * and form accumulators as other (e.g. a full recompute).
+	 */
+	public boolean sameAs(SeasonState other) {
+		try {
+			ByteArrayOutputStream mine = new ByteArrayOutputStream();
+			ByteArrayOutputStream theirs = new ByteArrayOutputStream();
+			write(new DataOutputStream(mine));
+			other.write(new DataOutputStream(theirs));
+			return Arrays.equals(mine.toByteArray(), theirs.toByteArray());
+		} catch (IOException e) {
+			return false;	// not thrown by in-memory streams
+		}
+	}
+
+	static void writeStats(DataOutputStream out, GameStatistics stats)
+			throws IOException {
+		for (int j = 0; j < GameStatistics.STATS; j++) {
+			out.writeInt(stats.data[stats.offset + j]);
+		}
+	}
+
+	static void readStats(DataInputStream in, GameStatistics stats)
+			throws IOException {
+		for (int j = 0; j < GameStatistics.STATS; j++) {
+			stats.data[stats.offset + j] = in.readInt();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: java SeasonState state-file RAW-file " +
+					"SEASON-file [full-RAW-file]");
+			return;
+		}
+		String stateFile = args[0];
+		SeasonState state;
+		List<Game> games;
+		if (new File(stateFile).isFile()) {
+			state = load(stateFile);
+			games = state.append(args[1]);
+			NBAStatCalculator.writeGames(games, args[2], true, state.form != null);
+		} else {
+			games = new ArrayList<Game>();
+			state = build(args[1], null, games);
+			NBAStatCalculator.writeGames(games, args[2], false, false);
+		}
+		state.save(stateFile);
+		System.out.println("Appended " + games.size() + " games up to " +
+				state.getLastDate());
+
+		if (args.length > 3) {
+			SeasonState full = build(args[3], state.form, null);
+			System.out.println(state.sameAs(full) ?
+					"State matches a full recompute" :
+					"State DIFFERS from a full recompute");
+		}
+	}
+}
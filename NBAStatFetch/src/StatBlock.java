@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+
+/**
+ * StatBlock.java
+ * Box-score statistics of many games (e.g. a season) or many averages,
+ * stored as blocks of ints rather than one object of named fields per row.
+ * Each row is GameStatistics.STATS consecutive ints in GameStatistics order
+ * (FGM, FGA, ..., PF, PTS), so adding, subtracting and averaging rows are
+ * short loops over a primitive array.
+ *
+ * Rows are allocated in fixed-size pages that are never moved, so the
+ * GameStatistics view of a row stays valid as the block grows.
+ * A block is not thread safe; each thread should fill its own.
+ */
+
+public class StatBlock {
+	static final int PAGE_ROWS = 256;
+
+	private final ArrayList<int[]> pages = new ArrayList<int[]>();
+	private int rows;
+
+	/** Add a row of zeros and return a view of it */
+	public GameStatistics addRow(String name) {
+		int slot = rows % PAGE_ROWS;
+		if (slot == 0) {
+			pages.add(new int[PAGE_ROWS * GameStatistics.STATS]);
+		}
+		rows++;
+		return new GameStatistics(pages.get(pages.size() - 1),
+				slot * GameStatistics.STATS, name);
+	}
+
+	/** Number of rows added */
+	public int size() {
+		return rows;
+	}
+}
@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+
+/**
+ * StatsStub.java
+ * Offline stand-in for stats.nba.com, serving recorded leaguedashteamstats
+ * and teamgamelog JSON responses from a directory through a StubServer:
+ * 		<dir>/leaguedashteamstats.json
+ * 		<dir>/teamgamelog-<TeamID>.json
+ * Recordings can be made from a RAW game file (see record), so the whole
+ * NBAStatBrowser fetch can be replayed without the network.
+ *
+ * Run from the NBAStatFetch directory to compare serial and concurrent
+ * fetching against the stub, then fetching through an HttpCache:
+ * 		java StatsStub RAW-file [latencyMillis] [threads]
+ */
+
+public class StatsStub {
+	public static final String TEAMS = "leaguedashteamstats";
+	public static final String GAME_LOG = "teamgamelog";
+
+	/** Start a stub serving the recordings in dir on a free port */
+	public static StubServer start(final String dir) throws IOException {
+		StubServer stub = new StubServer(0, "application/json",
+				new StubServer.Responder() {
+			public byte[] respond(String path, String query, byte[] body)
+					throws IOException {
+				File file;
+				if (path.endsWith("/" + TEAMS)) {
+					file = new File(dir, TEAMS + ".json");
+				} else if (path.endsWith("/" + GAME_LOG)) {
+					file = new File(dir, GAME_LOG + "-" +
+							queryParameter(query, "TeamID") + ".json");
+				} else {
+					return null;
+				}
+				if (!file.isFile()) {
+					return null;
+				}
+				return StubServer.readAll(new FileInputStream(file));
+			}
+		});
+		stub.start();
+		return stub;
+	}
+
+	/** Value of a parameter in a query string, or null */
+	static String queryParameter(String query, String name) {
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			if (pair.startsWith(name + "=")) {
+				return pair.substring(name.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record the responses stats.nba.com would give for the games of a RAW
+	 * game file (as written by NBAStatBrowser) into dir.
+	 */
+	public static void record(String rawFile, String dir) throws IOException {
+		String[] logHeaders = new String[5 + GameStatistics.STATS];
+		String[] fixed = {"Team_ID", "Game_ID", "GAME_DATE", "MATCHUP", "WL"};
+		System.arraycopy(fixed, 0, logHeaders, 0, fixed.length);
+		System.arraycopy(GameStatistics.LABELS, 0, logHeaders, fixed.length,
+				GameStatistics.STATS);
+
+		SimpleDateFormat rawDate = new SimpleDateFormat("yyyy-MM-dd");
+		SimpleDateFormat logDate = new SimpleDateFormat("MMM dd, yyyy", Locale.US);
+		TreeMap<String, String> teamNames = new TreeMap<String, String>();
+		HashMap<String, ArrayList<String[]>> logs =
+				new HashMap<String, ArrayList<String[]>>();
+
+		BufferedReader in = new BufferedReader(new FileReader(rawFile));
+		try {
+			String[] header = in.readLine().split(",");
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] row = line.split(",");
+				String date;
+				try {
+					date = logDate.format(rawDate.parse(row[1])).toUpperCase();
+				} catch (Exception e) {
+					continue;
+				}
+				// Home team fields start at column 2, road team at column 18
+				for (int side = 0; side < 2; side++) {
+					int first = (side == 0) ? 2 : 18;
+					int other = (side == 0) ? 18 : 2;
+					String teamID = row[first];
+					String name = row[first + 1];
+					String matchup = (side == 0) ?
+							name + " vs. " + row[other + 1] :
+							name + " @ " + row[other + 1];
+					String[] logRow = new String[logHeaders.length];
+					logRow[0] = teamID;
+					logRow[1] = row[0];
+					logRow[2] = date;
+					logRow[3] = matchup;
+					logRow[4] = (Integer.parseInt(row[first + 2]) >
+							Integer.parseInt(row[other + 2])) ? "W" : "L";
+					for (int j = 0; j < GameStatistics.STATS; j++) {
+						String label = GameStatistics.LABELS[j];
+						for (int c = first + 2; c < first + 16; c++) {
+							if (header[c].equals(label)) {
+								logRow[fixed.length + j] = row[c];
+							}
+						}
+					}
+					teamNames.put(teamID, name);
+					if (!logs.containsKey(teamID)) {
+						logs.put(teamID, new ArrayList<String[]>());
+					}
+					logs.get(teamID).add(logRow);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		new File(dir).mkdirs();
+		String[][] teamRows = new String[teamNames.size()][];
+		int t = 0;
+		for (String teamID : teamNames.keySet()) {
+			teamRows[t++] = new String[] {teamID, teamNames.get(teamID)};
+		}
+		writeJson(new File(dir, TEAMS + ".json"), TEAMS,
+				new String[] {"TEAM_ID", "TEAM_NAME"}, teamRows);
+		for (String teamID : logs.keySet()) {
+			ArrayList<String[]> rows = logs.get(teamID);
+			writeJson(new File(dir, GAME_LOG + "-" + teamID + ".json"),
+					GAME_LOG, logHeaders, rows.toArray(new String[rows.size()][]));
+		}
+	}
+
+	private static void writeJson(File file, String resource, String[] headers,
+			String[][] rows) throws IOException {
+		NBAStatBrowser.ResultSet resultSet = new NBAStatBrowser.ResultSet();
+		resultSet.setName(resource);
+		resultSet.setHeaders(headers);
+		resultSet.setRowSet(rows);
+		NBAStatBrowser.NBAData data = new NBAStatBrowser.NBAData();
+		data.setResource(resource);
+		data.setParameters(new HashMap<String, String>());
+		data.setResultSets(new NBAStatBrowser.ResultSet[] {resultSet});
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			new Gson().toJson(data, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Fetch a season from the stub with the given threads into outFile */
+	static long fetch(int threads, String outFile) throws IOException {
+		long start = System.nanoTime();
+		NBAStatBrowser.games = new HashMap<String, Game>();
+		String[] teamIDs = NBAStatBrowser.getTeamIDs(
+				NBAStatBrowser.getTeamBaseStats("2011-12"));
+		List<String> failed = NBAStatBrowser.fetchGameStats("2011-12", teamIDs,
+				threads, new TokenBucket(1000, threads));
+		if (!failed.isEmpty()) {
+			System.out.println("Failed teams: " + failed);
+		}
+		NBAStatBrowser.writeGames(outFile);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	static List<String> readLines(String path) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String rawFile = (args.length > 0) ? args[0] : "data/2012-RAW.csv";
+		long latency = (args.length > 1) ? Long.parseLong(args[1]) : 100;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) :
+				NBAStatBrowser.FETCH_THREADS;
+
+		File dir = File.createTempFile("stats-stub", "");
+		dir.delete();
+		record(rawFile, dir.getPath());
+		StubServer stub = start(dir.getPath());
+		stub.setLatency(latency);
+		NBAStatBrowser.statsServer = "http://localhost:" + stub.getPort() +
+				"/stats/";
+
+		File serialFile = new File(dir, "serial.csv");
+		File concurrentFile = new File(dir, "concurrent.csv");
+		long serial = fetch(1, serialFile.getPath());
+		int serialHits = stub.getHits();
+		long concurrent = fetch(threads, concurrentFile.getPath());
+		int connections = stub.getConnections();
+
+		// Through a cache: download once, then revalidate or skip the server
+		File cachedFile = new File(dir, "cached.csv");
+		HttpCache revalidating = new HttpCache(new File(dir, "cache").getPath(), 0);
+		HttpUtil.setCache(revalidating);
+		int before = stub.getHits();
+		fetch(threads, cachedFile.getPath());
+		int downloads = stub.getHits() - before;
+		before = stub.getHits();
+		long revalidated = fetch(threads, cachedFile.getPath());
+		int revalidations = stub.getHits() - before;
+		int notModified = stub.getNotModified();
+		HttpUtil.setCache(HttpCache.forNBAStats(new File(dir, "cache").getPath()));
+		before = stub.getHits();
+		long cached = fetch(threads, cachedFile.getPath());
+		int completedHits = stub.getHits() - before;
+		HttpUtil.setCache(null);
+		stub.stop();
+
+		List<String> expected = readLines(rawFile);
+		List<String> serialLines = readLines(serialFile.getPath());
+		List<String> concurrentLines = readLines(concurrentFile.getPath());
+		String[] sorted = expected.toArray(new String[expected.size()]);
+		String[] fetched = concurrentLines.toArray(new String[concurrentLines.size()]);
+		Arrays.sort(sorted);
+		Arrays.sort(fetched);
+		System.out.println("Latency " + latency + " ms, " + serialHits +
+				" requests per fetch, " + connections + " connections for " +
+				"both fetches");
+		System.out.println("Serial:     " + serial + " ms");
+		System.out.println("Concurrent: " + concurrent + " ms (" + threads +
+				" threads)");
+		System.out.println("Concurrent output " +
+				(serialLines.equals(concurrentLines) ? "matches" : "DIFFERS from") +
+				" serial output, and " +
+				(Arrays.equals(sorted, fetched) ? "has" : "DOES NOT have") +
+				" the games of " + rawFile);
+		System.out.println("Cache: " + downloads + " requests to fill; " +
+				revalidations + " requests (" + notModified + " not modified) " +
+				"to revalidate in " + revalidated + " ms; " + completedHits +
+				" requests for a completed season in " + cached + " ms; output " +
+				(readLines(cachedFile.getPath()).equals(concurrentLines) ?
+						"matches" : "DIFFERS"));
+	}
+}
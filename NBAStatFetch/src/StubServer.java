@@ -0,0 +1,201 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * StubServer.java
+ * Local HTTP server standing in for a remote site (stats.nba.com,
+ * databasebasketball.com) when testing the fetchers offline. Every request
+ * is answered by a Responder after an injected latency, and counted, so
+ * tests can check how many requests actually reached the "network".
+ * Responses carry an ETag (a digest of the body), and a request whose
+ * If-None-Match equals it gets an empty 304 Not Modified instead. Bodies
+ * are gzip encoded for clients that accept it. The number of distinct
+ * client connections is kept, to check that clients reuse connections.
+ * Failures can be injected: every n-th request is answered with a 500
+ * Internal Server Error, to check that clients retry or resume.
+ */
+
+public class StubServer {
+
+	/** Produces the response to a request */
+	public interface Responder {
+		/**
+		 * @param path path of the request, e.g. /stats/teamgamelog
+		 * @param query query string, or null
+		 * @param body request body (empty for GET)
+		 * @return the response body, or null for 404 Not Found
+		 */
+		byte[] respond(String path, String query, byte[] body) throws IOException;
+	}
+
+	/* Send small responses at once instead of waiting on Nagle's algorithm,
+	 * which would add tens of milliseconds to every keep-alive request.
+	 * Must be set before the first HttpServer is created. */
+	static {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService pool;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger notModified = new AtomicInteger();
+	private final AtomicInteger failures = new AtomicInteger();
+	private final Set<InetSocketAddress> connections =
+			Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+	private volatile long latencyMillis;
+	private volatile int failEvery;		// 0 for no failures
+
+	/** Constructor - Stub on port (0 for any free port) */
+	public StubServer(int port, final String contentType,
+			final Responder responder) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					int hit = hits.incrementAndGet();
+					connections.add(exchange.getRemoteAddress());
+					byte[] body = readAll(exchange.getRequestBody());
+					if (latencyMillis > 0) {
+						Thread.sleep(latencyMillis);
+					}
+					int every = failEvery;
+					if (every > 0 && hit % every == 0) {
+						failures.incrementAndGet();
+						exchange.sendResponseHeaders(500, -1);
+						return;
+					}
+					byte[] response = responder.respond(
+							exchange.getRequestURI().getPath(),
+							exchange.getRequestURI().getRawQuery(), body);
+					if (response == null) {
+						exchange.sendResponseHeaders(404, -1);
+						return;
+					}
+					String etag = etag(response);
+					exchange.getResponseHeaders().set("ETag", etag);
+					if (etag.equals(exchange.getRequestHeaders()
+							.getFirst("If-None-Match"))) {
+						notModified.incrementAndGet();
+						exchange.sendResponseHeaders(304, -1);
+					} else {
+						exchange.getResponseHeaders().set("Content-Type",
+								contentType);
+						String accept = exchange.getRequestHeaders()
+								.getFirst("Accept-Encoding");
+						if (accept != null && accept.contains("gzip")) {
+							response = gzip(response);
+							exchange.getResponseHeaders().set("Content-Encoding",
+									"gzip");
+						}
+						exchange.sendResponseHeaders(200, response.length);
+						OutputStream out = exchange.getResponseBody();
+						out.write(response);
+						out.close();
+					}
+				} catch (InterruptedException e) {
+					exchange.sendResponseHeaders(503, -1);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// Requests are served concurrently, so latency overlaps as it would
+		pool = Executors.newCachedThreadPool();
+		server.setExecutor(pool);
+	}
+
+	/** Delay every response by latencyMillis */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/** Fail every request whose number (counting from 1) is a multiple
+	 *  of n, or none if n is 0 */
+	public void setFailEvery(int n) {
+		failEvery = n;
+	}
+
+	/** Number of requests received so far */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/** Number of requests answered with 304 Not Modified so far */
+	public int getNotModified() {
+		return notModified.get();
+	}
+
+	/** Number of requests failed on purpose so far */
+	public int getFailures() {
+		return failures.get();
+	}
+
+	/** Number of distinct client connections so far */
+	public int getConnections() {
+		return connections.size();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		pool.shutdown();
+	}
+
+	/** Quoted hex MD5 of a response body */
+	static String etag(byte[] body) {
+		try {
+			StringBuffer hex = new StringBuffer("\"");
+			for (byte b : MessageDigest.getInstance("MD5").digest(body)) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.append("\"").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(body);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,265 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * TeamForm.java
+ * Recent-form features of a team before each of its games, to complement
+ * the season-to-date averages of NBAStatCalculator:
+ * 1. For each window length N, the averages of the team's and its
+ *    opponents' major statistics over the last N games.
+ * 2. For each half-life H (in games), exponentially weighted moving averages
+ *    (EWMA) of the same statistics, in which a game H games back weighs
+ *    half as much as the latest one.
+ *
+ * All windows and half-lives are computed together in one pass over the
+ * team's games, home and road, in chronological order. The pass keeps one
+ * running total per window, from which the game leaving the window is
+ * subtracted, and one array of moving averages per half-life, so adding a
+ * window or half-life adds accumulators rather than passes. The pass is
+ * held in a State, which can be saved and continued with later games (see
+ * SeasonState).
+ *
+ * The features of a game are laid out as, for each window and then each
+ * half-life, MAJOR_STATS team statistics followed by MAJOR_STATS opponent
+ * statistics (see GameStatistics.getMajorStats).
+ */
+
+public class TeamForm {
+	private static final int M = GameStatistics.MAJOR_STATS;
+
+	private final int[] windows;
+	private final double[] halfLives;
+	private final double[] alphas;	// EWMA smoothing factor per half-life
+	private final int minGames;		// Games needed before features are set
+
+	/**
+	 * @param windows lengths N of the last-N-game averages
+	 * @param halfLives half-lives, in games, of the moving averages
+	 * @param minGames number of earlier games a team must have played
+	 * 		before its features are set for a game
+	 * @throws IllegalArgumentException if a window is less than one game or
+	 * 		a half-life is not positive
+	 */
+	public TeamForm(int[] windows, double[] halfLives, int minGames) {
+		for (int w : windows) {
+			if (w < 1) {
+				throw new IllegalArgumentException("Windows must be at least " +
+						"one game: " + w);
+			}
+		}
+		for (double h : halfLives) {
+			if (!(h > 0)) {
+				throw new IllegalArgumentException("Half-lives must be " +
+						"positive: " + h);
+			}
+		}
+		this.windows = windows.clone();
+		this.halfLives = halfLives.clone();
+		this.alphas = new double[halfLives.length];
+		for (int h = 0; h < halfLives.length; h++) {
+			alphas[h] = 1 - Math.pow(0.5, 1 / halfLives[h]);
+		}
+		this.minGames = Math.max(1, minGames);
+	}
+
+	/** Number of features set for each game */
+	public int getFeatureCount() {
+		return (windows.length + halfLives.length) * 2 * M;
+	}
+
+	/** Labels of the features, comma-separated, e.g. L5_PTS or OppEWMA3_PTS */
+	public String header() {
+		String[] stats = {"FGM", "FG3M", "FTM", "REB", "AST", "STL", "BLK",
+				"TOV", "PTS"};
+		StringBuffer buff = new StringBuffer();
+		for (int w = 0; w < windows.length + halfLives.length; w++) {
+			String label = (w < windows.length) ? "L" + windows[w] :
+					"EWMA" + halfLives[w - windows.length];
+			for (int side = 0; side < 2; side++) {
+				for (String stat : stats) {
+					if (buff.length() > 0) buff.append(",");
+					buff.append(side == 0 ? "" : "Opp").append(label)
+							.append("_").append(stat);
+				}
+			}
+		}
+		return buff.toString();
+	}
+
+	/**
+	 * Set the features of team in each of its games, which must be in
+	 * chronological order. The features of a game only use earlier games.
+	 */
+	public void compute(String team, ArrayList<Game> games) {
+		State state = newState();
+		for (Game g : games) {
+			boolean isHome = team.equals(g.getHomeTeam());
+			double[] form = state.features();
+			if (form != null) {
+				g.setForm(isHome, form);
+			}
+			state.add(isHome ? g.homeStats : g.roadStats,
+					isHome ? g.roadStats : g.homeStats);
+		}
+	}
+
+	/** The state of a team that has not played yet */
+	public State newState() {
+		return new State();
+	}
+
+	/** Write the windows, half-lives and minimum games */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(windows.length);
+		for (int w : windows) {
+			out.writeInt(w);
+		}
+		out.writeInt(halfLives.length);
+		for (double h : halfLives) {
+			out.writeDouble(h);
+		}
+		out.writeInt(minGames);
+	}
+
+	/** Read a TeamForm written by write */
+	static TeamForm read(DataInputStream in) throws IOException {
+		int[] windows = new int[in.readInt()];
+		for (int w = 0; w < windows.length; w++) {
+			windows[w] = in.readInt();
+		}
+		double[] halfLives = new double[in.readInt()];
+		for (int h = 0; h < halfLives.length; h++) {
+			halfLives[h] = in.readDouble();
+		}
+		return new TeamForm(windows, halfLives, in.readInt());
+	}
+
+	/**
+	 * State:
+	 * The accumulators of one team after some of its games: a running total
+	 * per window, the last games played (as many as the longest window) to
+	 * evict from the totals, and the moving averages per half-life.
+	 */
+	public class State {
+		private int played;				// games added so far
+		private final GameStatistics[] windowTotal;
+		private final GameStatistics[] windowOppTotal;
+		/* Last games added: game k is in slot k % recent.length */
+		private final GameStatistics[] recent;
+		private final GameStatistics[] recentOpp;
+		private final double[] ewma;
+		private final double[] current = new double[2 * M];	// latest game
+
+		State() {
+			int maxWindow = 0;
+			for (int w : windows) {
+				maxWindow = Math.max(maxWindow, w);
+			}
+			StatBlock block = new StatBlock();
+			windowTotal = new GameStatistics[windows.length];
+			windowOppTotal = new GameStatistics[windows.length];
+			for (int w = 0; w < windows.length; w++) {
+				windowTotal[w] = block.addRow(null);
+				windowOppTotal[w] = block.addRow(null);
+			}
+			recent = new GameStatistics[maxWindow];
+			recentOpp = new GameStatistics[maxWindow];
+			for (int slot = 0; slot < maxWindow; slot++) {
+				recent[slot] = block.addRow(null);
+				recentOpp[slot] = block.addRow(null);
+			}
+			ewma = new double[halfLives.length * 2 * M];
+		}
+
+		public int getGamesPlayed() {
+			return played;
+		}
+
+		/**
+		 * The features of the team's next game, from the games added so
+		 * far, or null if fewer than minGames have been added
+		 */
+		public double[] features() {
+			if (played < minGames) {
+				return null;
+			}
+			double[] form = new double[getFeatureCount()];
+			int f = 0;
+			for (int w = 0; w < windows.length; w++) {
+				int count = Math.min(played, windows[w]);
+				windowTotal[w].getMajorStats(form, f, count);
+				windowOppTotal[w].getMajorStats(form, f + M, count);
+				f += 2 * M;
+			}
+			System.arraycopy(ewma, 0, form, f, ewma.length);
+			return form;
+		}
+
+		/** Add the team's next game, with its and its opponent's stats */
+		public void add(GameStatistics stats, GameStatistics oppStats) {
+			// Add the game to the windows, evicting the game that leaves each
+			for (int w = 0; w < windows.length; w++) {
+				windowTotal[w].addStats(stats);
+				windowOppTotal[w].addStats(oppStats);
+				if (played >= windows[w]) {
+					int slot = (played - windows[w]) % recent.length;
+					windowTotal[w].subtractStats(recent[slot]);
+					windowOppTotal[w].subtractStats(recentOpp[slot]);
+				}
+			}
+			if (recent.length > 0) {
+				recent[played % recent.length].setStats(stats);
+				recentOpp[played % recent.length].setStats(oppStats);
+			}
+
+			// Move each EWMA toward the game's stats
+			stats.getMajorStats(current, 0, 1);
+			oppStats.getMajorStats(current, M, 1);
+			for (int h = 0; h < halfLives.length; h++) {
+				int base = h * 2 * M;
+				for (int j = 0; j < 2 * M; j++) {
+					if (played == 0) {
+						ewma[base + j] = current[j];
+					} else {
+						ewma[base + j] += alphas[h] * (current[j] - ewma[base + j]);
+					}
+				}
+			}
+			played++;
+		}
+
+		/** Write the accumulators */
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(played);
+			for (int w = 0; w < windows.length; w++) {
+				SeasonState.writeStats(out, windowTotal[w]);
+				SeasonState.writeStats(out, windowOppTotal[w]);
+			}
+			for (int slot = 0; slot < recent.length; slot++) {
+				SeasonState.writeStats(out, recent[slot]);
+				SeasonState.writeStats(out, recentOpp[slot]);
+			}
+			for (double x : ewma) {
+				out.writeDouble(x);
+			}
+		}
+
+		/** Replace the accumulators with ones written by write */
+		void read(DataInputStream in) throws IOException {
+			played = in.readInt();
+			for (int w = 0; w < windows.length; w++) {
+				SeasonState.readStats(in, windowTotal[w]);
+				SeasonState.readStats(in, windowOppTotal[w]);
+			}
+			for (int slot = 0; slot < recent.length; slot++) {
+				SeasonState.readStats(in, recent[slot]);
+				SeasonState.readStats(in, recentOpp[slot]);
+			}
+			for (int j = 0; j < ewma.length; j++) {
+				ewma[j] = in.readDouble();
+			}
+		}
+	}
+}
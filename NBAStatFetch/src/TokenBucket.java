@@ -0,0 +1,43 @@
+/**
+ * TokenBucket.java
+ * Token-bucket rate limiter shared by the threads fetching from one server.
+ * The bucket holds up to burst tokens and refills at rate tokens per
+ * second; each request takes one token, waiting for it if the bucket is
+ * empty. Requests are served in the order they call acquire, and waiting
+ * is done outside the lock.
+ */
+
+public class TokenBucket {
+	private final double rate;		// tokens added per second
+	private final double burst;		// most tokens the bucket holds
+	private double tokens;			// may go negative: tokens owed to waiters
+	private long last;				// System.nanoTime() of the last refill
+
+	/** Constructor - Bucket allowing rate requests per second on average,
+	 *  and bursts of up to burst requests */
+	public TokenBucket(double rate, int burst) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("Rate must be positive and " +
+					"burst at least 1");
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.tokens = burst;
+		this.last = System.nanoTime();
+	}
+
+	/** Take a token, waiting until one is available */
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+			last = now;
+			tokens -= 1;
+			waitNanos = (tokens >= 0) ? 0 : (long) (-tokens / rate * 1e9);
+		}
+		if (waitNanos > 0) {
+			Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+		}
+	}
+}